@@ -15,15 +15,14 @@ mvn dependency:build-classpath -Dmdep.outputFile=cp.txt
 CLASSPATH=$(cat cp.txt):target/classes
 echo ${CLASSPATH}
 echo "class path"
-java -classpath ${CLASSPATH} com.crossover.trial.weather.WeatherServer &
+# the airports are loaded before the server accepts requests
+java -classpath ${CLASSPATH} com.crossover.trial.weather.WeatherServer localhost 9090 target/classes/airports.dat &
 SERVER_PID=$$
 
 while ! nc localhost 9090 > /dev/null 2>&1 < /dev/null; do
     echo "$(date) - waiting for server at localhost:9090..."
     sleep 1
 done
-java -classpath ${CLASSPATH} com.crossover.trial.weather.AirportLoader
-
 java -classpath ${CLASSPATH} com.crossover.trial.weather.client.WeatherClient
 CLIENT_PID=$$
 cleanup
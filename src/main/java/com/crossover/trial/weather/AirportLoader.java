@@ -1,21 +1,55 @@
 package com.crossover.trial.weather;
 
+import com.crossover.trial.weather.data.AirportCatalogParser;
+import com.crossover.trial.weather.data.AirportData;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
 import java.io.*;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A simple airport loader which reads a file from disk and sends entries to the webservice
+ * <p>
+ * The whole file is posted to the bulk catalog endpoint when the server offers one and accepts it. Otherwise lines
+ * are parsed on the calling thread and posted one airport per request, with up to {@link #CONCURRENCY} requests in
+ * flight. Failed requests are retried with exponential backoff.
  *
  * @author code test administrator
  */
 public class AirportLoader {
 
+    /**
+     * "auto" tries the bulk endpoint and falls back to single airport requests, "bulk" and "pipelined" force either
+     */
+    public static final String MODE = System.getProperty("weather.loader.mode", "auto");
+
+    /**
+     * maximum number of single airport requests in flight
+     */
+    public static final int CONCURRENCY = Integer.getInteger("weather.loader.concurrency", 16);
+
+    /**
+     * retries of a failed single airport request before the airport is given up
+     */
+    public static final int RETRIES = Integer.getInteger("weather.loader.retries", 3);
+
+    /**
+     * delay before the first retry in ms, doubled for every further one
+     */
+    public static final long BACKOFF_MILLIS = Long.getLong("weather.loader.backoffMillis", 100);
+
     /**
      * end point to supply updates
      */
@@ -31,7 +65,7 @@ public class AirportLoader {
     public static void main(String args[]) throws IOException {
         String host = args != null && args.length >= 1 && args[0] != null ? args[0] : "localhost";
         String port = args != null && args.length >= 2 && args[1] != null ? args[1] : "9090";
-        String airportsDataFilePath = args != null && args.length >= 3 && args[3] != null ? args[3] : null;
+        String airportsDataFilePath = args != null && args.length >= 3 && args[2] != null ? args[2] : null;
         String baseURL = "http://" + host + ":" + port;
 
         AirportLoader al = new AirportLoader(baseURL, airportsDataFilePath);
@@ -49,34 +83,175 @@ public class AirportLoader {
             System.err.println(airportDataFile + " is not a valid input");
             System.exit(1);
         }
-        String sCurrentLine;
-
-        BufferedReader reader = null;
+        long start = System.nanoTime();
+        int rows;
         try {
-            reader = new BufferedReader(new InputStreamReader((new FileInputStream(airportDataFile))));
-            while ((sCurrentLine = reader.readLine()) != null) {
-                String updatedLine = sCurrentLine.replace("\"", "");
-                String[] elements = updatedLine.split(",");
-                String iata = elements[4];
-                String latString = elements[6];
-                String longString = elements[7];
-                        WebTarget path = collect.path("/airport/" + iata + "/" + latString + "/" + longString);
-                        Response post = path.request().post(Entity.entity("", "application/json"));
-                        System.out.println("collector.addAirportData: " + iata + " " + post.getStatus());
+            rows = "pipelined".equalsIgnoreCase(MODE) ? -1 : uploadBulk(airportDataFile);
+            if (rows < 0) {
+                rows = uploadPipelined(airportDataFile);
             }
         } catch (FileNotFoundException e) {
             System.err.println(filePath + " is not a valid input. Please specify the correct file path for airports.dat");
+            return;
         } catch (IOException e) {
             System.err.println(" Error while reading the file " + filePath);
-        } finally {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println(" Interrupted while uploading the file " + filePath);
+            return;
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.printf("collector.addAirportData: %d rows in %.2f s, %.0f rows/s%n", rows, seconds, rows / seconds);
+    }
+
+    /**
+     * Post the whole file to the bulk catalog endpoint. Server and network errors are retried with the backoff of
+     * the single airport requests, the airports are sent one by one if it still fails, unless bulk mode is forced.
+     * Airports the failed attempts added already are reported as conflicts then, which are accepted.
+     *
+     * @return number of non blank lines, -1 if the server has no bulk endpoint or the bulk upload failed and the
+     * airports have to be sent one by one
+     */
+    private int uploadBulk(File airportDataFile) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            int status;
+            String summary;
             try {
-                if (reader != null) {
-                    reader.close();
+                Response post = collect.path("/airports").request().post(Entity.entity(airportDataFile, "text/csv"));
+                status = post.getStatus();
+                summary = post.readEntity(String.class);
+            } catch (ProcessingException e) {
+                if (attempt < RETRIES) {
+                    Thread.sleep(BACKOFF_MILLIS << attempt);
+                    continue;
+                }
+                return bulkFailed(e.toString());
+            }
+            if (status == Response.Status.NOT_FOUND.getStatusCode()
+                    || status == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()
+                    || status == Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode()) {
+                if ("bulk".equalsIgnoreCase(MODE)) {
+                    throw new IOException("No bulk catalog endpoint, status " + status);
+                }
+                return -1;
+            }
+            System.out.println("collector.addAirports: " + status + " " + summary);
+            if (status >= 500 && attempt < RETRIES) {
+                Thread.sleep(BACKOFF_MILLIS << attempt);
+                continue;
+            }
+            if (status != Response.Status.OK.getStatusCode()) {
+                return bulkFailed("status " + status);
+            }
+            JsonObject counts = new JsonParser().parse(summary).getAsJsonObject();
+            return counts.get("added").getAsInt() + counts.get("conflicts").getAsInt()
+                    + counts.get("invalid").getAsInt();
+        }
+    }
+
+    /**
+     * Give up the bulk upload
+     *
+     * @param cause why the last attempt failed
+     * @return -1 to send the airports one by one
+     * @throws IOException if bulk mode is forced
+     */
+    private int bulkFailed(String cause) throws IOException {
+        if ("bulk".equalsIgnoreCase(MODE)) {
+            throw new IOException("Bulk upload failed, " + cause);
+        }
+        System.err.println("collector.addAirports: failed, " + cause + ", sending the airports one by one");
+        return -1;
+    }
+
+    /**
+     * Post one request per airport, parsing the next line of the memory mapped file while earlier requests are in
+     * flight
+     *
+     * @return number of airports posted
+     */
+    private int uploadPipelined(File airportDataFile) throws IOException, InterruptedException {
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        AtomicInteger failed = new AtomicInteger();
+        ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "airport-loader-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger posted = new AtomicInteger();
+        boolean completed = false;
+        try {
+            AirportCatalogParser.parse(airportDataFile.toPath(), row -> {
+                AirportData airport = row.toAirportData();
+                if (airport == null) {
+                    System.err.println("collector.addAirportData: invalid line " + row.lineNumber());
+                    return;
+                }
+                inFlight.acquireUninterruptibly();
+                try {
+                    post(airport, 0, inFlight, failed, retries);
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
                 }
-            } catch (IOException ex) {
-                System.err.println(" Error while Closing the Buffer Reader for the file " + filePath);
+                posted.incrementAndGet();
+            });
+            // every permit is back once the last request completed
+            inFlight.acquire(CONCURRENCY);
+            completed = true;
+        } finally {
+            if (!completed) {
+                // reading stopped early, the requests in flight still complete or report their failure
+                inFlight.acquireUninterruptibly(CONCURRENCY);
+            }
+            retries.shutdownNow();
+            if (failed.get() > 0) {
+                System.err.println("collector.addAirportData: " + failed.get() + " airports could not be added");
             }
         }
+        return posted.get();
+    }
+
+    /**
+     * Post a single airport asynchronously, the permit is released once it is added or given up
+     */
+    private void post(AirportData airport, int attempt, Semaphore inFlight, AtomicInteger failed,
+                      ScheduledExecutorService retries) {
+        WebTarget path = collect.path("/airport/" + airport.getIata() + "/" + airport.getLatitude() + "/" +
+                airport.getLongitude());
+        path.request().async().post(Entity.entity("", "application/json"), new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                int status = response.getStatus();
+                response.close();
+                // conflicts mean the airport is already there, only server errors are worth retrying
+                if (status >= 500) {
+                    retry("status " + status);
+                } else {
+                    if (status >= 400 && status != Response.Status.CONFLICT.getStatusCode()) {
+                        System.err.println("collector.addAirportData: " + airport.getIata() + " " + status);
+                        failed.incrementAndGet();
+                    }
+                    inFlight.release();
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                retry(throwable.toString());
+            }
 
+            private void retry(String cause) {
+                if (attempt < RETRIES) {
+                    retries.schedule(() -> post(airport, attempt + 1, inFlight, failed, retries),
+                            BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS);
+                } else {
+                    System.err.println("collector.addAirportData: " + airport.getIata() + " failed, " + cause);
+                    failed.incrementAndGet();
+                    inFlight.release();
+                }
+            }
+        });
     }
 }
@@ -1,7 +1,10 @@
 package com.crossover.trial.weather;
 
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.AirportDataJournal;
 import com.crossover.trial.weather.enpoint.RestWeatherCollectorEndpoint;
 import com.crossover.trial.weather.enpoint.RestWeatherQueryEndpoint;
+import com.crossover.trial.weather.service.WeatherCollectorService;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.HttpServerFilter;
@@ -12,6 +15,10 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,13 +36,17 @@ public class WeatherServer {
     /**
      * Main method of the wether server
      *
-     * @param args host and the port of the server can be passed as arguements
+     * @param args host and the port of the server can be passed as arguements, followed by the path of an
+     *             airports.dat file which is loaded before the server accepts requests, the server exits with
+     *             status 1 if it can not be read. With the weather.data.dir property set, the state stored there is
+     *             recovered first and every change is persisted
      */
     public static void main(String[] args) {
         try {
             System.out.println("Starting Weather App local testing server......");
             String host = args != null && args.length >= 1 && args[0] != null ? args[0] : "localhost";
             String port = args != null && args.length >= 2 && args[1] != null ? args[1] : "9090";
+            String airportsDataFilePath = args != null && args.length >= 3 && args[2] != null ? args[2] : null;
             String baseURL = "http://" + host + ":" + port;
 
             System.out.println("Starting Weather App local testing server: " + baseURL);
@@ -54,6 +65,34 @@ public class WeatherServer {
             };
             server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(probe);
 
+            if (AirportDataJournal.DATA_DIR != null) {
+                System.out.println("Recovering airports from " + AirportDataJournal.DATA_DIR);
+                long start = System.nanoTime();
+                AirportDataJournal journal = AirportDataJournal.open(Paths.get(AirportDataJournal.DATA_DIR),
+                        AirportDataHolder.getInstance());
+                Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+                System.out.println(format("Recovered %d airports in %d ms",
+                        AirportDataHolder.getInstance().getAllAirportData().size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+
+            if (airportsDataFilePath != null) {
+                System.out.println("Loading airports from " + airportsDataFilePath);
+                long start = System.nanoTime();
+                Map<String, Object> summary;
+                try {
+                    summary = WeatherCollectorService.getInstance().importAirports(Paths.get(airportsDataFilePath));
+                } catch (IOException | InvalidPathException ex) {
+                    // the server is not started without the airports it was asked to serve
+                    Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE,
+                            "Could not load airports from " + airportsDataFilePath + ", not starting the server", ex);
+                    System.exit(1);
+                    return;
+                }
+                System.out.println(format("Loaded airports in %d ms: %s",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), summary));
+            }
+
             // the autograder waits for this output before running automated tests, please don't remove it
             server.start();
             System.out.println(format("Weather Server started.\n url=%s\n", baseURL));
@@ -0,0 +1,375 @@
+package com.crossover.trial.weather.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Parses the airports.dat CSV format straight from bytes. Files are memory mapped, streams are read into a reused
+ * buffer, and every line is scanned once for its field boundaries. Nothing is decoded until asked for: the IATA code
+ * is packed from its bytes and coordinates are parsed in place, so a valid line costs one {@link AirportData} and
+ * its IATA string, an invalid one nothing.
+ * <p>
+ * Fields may be quoted, quoted fields may contain commas and doubled quotes. Lines end with LF or CRLF, blank lines
+ * are skipped.
+ *
+ * @author code test administrator
+ */
+public final class AirportCatalogParser {
+
+    private static final int CITY_COLUMN = 2;
+    private static final int COUNTRY_COLUMN = 3;
+    private static final int IATA_COLUMN = 4;
+    private static final int LATITUDE_COLUMN = 6;
+    private static final int LONGITUDE_COLUMN = 7;
+
+    /**
+     * boundaries are only kept for the columns up to the longitude, the rest of a line is skipped
+     */
+    private static final int COLUMNS = LONGITUDE_COLUMN + 1;
+
+    /**
+     * a file is mapped in regions of at most this many bytes
+     */
+    private static final int REGION_SIZE = 1 << 30;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * longest line accepted from a stream, which has to be buffered as a whole
+     */
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    /**
+     * coordinates with at most this many digits are parsed exactly without {@link Double#parseDouble(String)}
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private AirportCatalogParser() {
+    }
+
+    /**
+     * Parse a catalog file through a read only memory mapping
+     *
+     * @param file    the catalog
+     * @param handler called with every non blank line, the row is only valid during the call
+     * @return number of lines in the file
+     * @throws IOException if the file can not be read
+     */
+    public static int parse(Path file, Consumer<Row> handler) throws IOException {
+        return parse(file, handler, REGION_SIZE);
+    }
+
+    static int parse(Path file, Consumer<Row> handler, int regionSize) throws IOException {
+        Row row = new Row();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(regionSize, size - position);
+                boolean last = position + length == size;
+                ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = parseLines(region, length, last, row, handler);
+                if (consumed == 0 && !last) {
+                    throw new IOException("Line " + (row.lineNumber + 1) + " is longer than " + regionSize + " bytes");
+                }
+                position += consumed;
+            }
+        }
+        return row.lineNumber;
+    }
+
+    /**
+     * Parse a catalog stream, only the lines not yet complete are buffered
+     *
+     * @param in      the catalog
+     * @param handler called with every non blank line, the row is only valid during the call
+     * @return number of lines in the stream
+     * @throws IOException if the stream can not be read, or a line is longer than 1 MB
+     */
+    public static int parse(InputStream in, Consumer<Row> handler) throws IOException {
+        Row row = new Row();
+        byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int filled = 0;
+        while (true) {
+            if (filled == bytes.length) {
+                if (bytes.length >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line " + (row.lineNumber + 1) + " is longer than " + MAX_LINE_LENGTH);
+                }
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            int read = in.read(bytes, filled, bytes.length - filled);
+            if (read < 0) {
+                parseLines(buffer, filled, true, row, handler);
+                return row.lineNumber;
+            }
+            filled += read;
+            int consumed = parseLines(buffer, filled, false, row, handler);
+            System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+            filled -= consumed;
+        }
+    }
+
+    /**
+     * Parse the complete lines in a buffer
+     *
+     * @param limit end of the content in the buffer
+     * @param last  whether the content ends the catalog, so the final line is complete without a line feed
+     * @return number of bytes consumed, the start of the incomplete final line unless last
+     */
+    private static int parseLines(ByteBuffer bytes, int limit, boolean last, Row row, Consumer<Row> handler) {
+        row.bytes = bytes;
+        int position = 0;
+        while (position < limit) {
+            int end = scanLine(bytes, position, limit, row);
+            if (end == limit && !last) {
+                return position;
+            }
+            row.lineNumber++;
+            if (row.columns > 0) {
+                handler.accept(row);
+            }
+            position = end + 1;
+        }
+        return limit;
+    }
+
+    /**
+     * Find the field boundaries of the line starting at a position
+     *
+     * @return position of the line feed ending the line, limit if there is none
+     */
+    private static int scanLine(ByteBuffer bytes, int position, int limit, Row row) {
+        row.columns = 0;
+        row.malformed = false;
+        int lineEnd = lineEnd(bytes, position, limit);
+        if (lineEnd == position) {
+            return skipLine(bytes, position, limit);
+        }
+        int column = 0;
+        int i = position;
+        while (true) {
+            int start;
+            int end;
+            boolean quoted = i < lineEnd && bytes.get(i) == '"';
+            if (quoted) {
+                start = i + 1;
+                end = closingQuote(bytes, start, lineEnd);
+                if (end < 0) {
+                    row.malformed = true;
+                    end = lineEnd;
+                }
+                i = end + 1;
+                while (i < lineEnd && bytes.get(i) != ',') {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < lineEnd && bytes.get(i) != ',') {
+                    i++;
+                }
+                end = i;
+            }
+            if (column < COLUMNS) {
+                row.starts[column] = start;
+                row.ends[column] = end;
+                row.quoted[column] = quoted;
+            }
+            column++;
+            if (i >= lineEnd) {
+                break;
+            }
+            // skip the separator
+            i++;
+        }
+        row.columns = Math.min(column, COLUMNS);
+        return skipLine(bytes, lineEnd, limit);
+    }
+
+    /**
+     * @return position of the carriage return or line feed ending the line, limit if there is none
+     */
+    private static int lineEnd(ByteBuffer bytes, int position, int limit) {
+        while (position < limit) {
+            byte b = bytes.get(position);
+            if (b == '\n' || b == '\r' && position + 1 < limit && bytes.get(position + 1) == '\n') {
+                return position;
+            }
+            position++;
+        }
+        return limit;
+    }
+
+    private static int skipLine(ByteBuffer bytes, int lineEnd, int limit) {
+        return lineEnd < limit && bytes.get(lineEnd) == '\r' ? lineEnd + 1 : lineEnd;
+    }
+
+    /**
+     * @return position of the quote closing a quoted field, doubled quotes are part of the field, -1 if none
+     */
+    private static int closingQuote(ByteBuffer bytes, int position, int lineEnd) {
+        while (position < lineEnd) {
+            if (bytes.get(position) == '"') {
+                if (position + 1 < lineEnd && bytes.get(position + 1) == '"') {
+                    position += 2;
+                    continue;
+                }
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a decimal number in place. Plain decimals with few digits, as used for coordinates, are exact since both
+     * the digits and the power of ten are exact doubles, anything else falls back to the JDK.
+     *
+     * @return the number, NaN if the field is not a number
+     */
+    static double parseNumber(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && digits <= MAX_FAST_DIGITS) {
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        byte[] field = new byte[end - start];
+        for (int j = 0; j < field.length; j++) {
+            field[j] = bytes.get(start + j);
+        }
+        try {
+            return Double.parseDouble(new String(field, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A line of the catalog, a view on the parsed bytes. Fields are decoded on demand and the row is reused for the
+     * next line, so it must not be kept.
+     */
+    public static final class Row {
+        private ByteBuffer bytes;
+        private final int[] starts = new int[COLUMNS];
+        private final int[] ends = new int[COLUMNS];
+        private final boolean[] quoted = new boolean[COLUMNS];
+        private int columns;
+        private boolean malformed;
+        private int lineNumber;
+
+        private Row() {
+        }
+
+        /**
+         * @return 1 based number of the line in the catalog
+         */
+        public int lineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return packed IATA code, see {@link IataCode#pack(CharSequence)}, {@link IataCode#INVALID} if missing
+         */
+        public int iataKey() {
+            return columns <= IATA_COLUMN ? IataCode.INVALID :
+                    IataCode.pack(bytes, starts[IATA_COLUMN], ends[IATA_COLUMN]);
+        }
+
+        /**
+         * @return latitude in degrees, NaN if missing or not a number
+         */
+        public double latitude() {
+            return number(LATITUDE_COLUMN);
+        }
+
+        /**
+         * @return longitude in degrees, NaN if missing or not a number
+         */
+        public double longitude() {
+            return number(LONGITUDE_COLUMN);
+        }
+
+        /**
+         * @return the city, null if missing
+         */
+        public String city() {
+            return text(CITY_COLUMN);
+        }
+
+        /**
+         * @return the country, null if missing
+         */
+        public String country() {
+            return text(COUNTRY_COLUMN);
+        }
+
+        /**
+         * Create the airport of this line
+         *
+         * @return the airport, null if the line has no valid IATA code or coordinates
+         */
+        public AirportData toAirportData() {
+            if (malformed) {
+                return null;
+            }
+            int key = iataKey();
+            double latitude = latitude();
+            double longitude = longitude();
+            if (key == IataCode.INVALID
+                    || !(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                return null;
+            }
+            return new AirportData(IataCode.unpack(key), latitude, longitude);
+        }
+
+        private double number(int column) {
+            return columns <= column ? Double.NaN : parseNumber(bytes, starts[column], ends[column]);
+        }
+
+        private String text(int column) {
+            if (columns <= column) {
+                return null;
+            }
+            byte[] field = new byte[ends[column] - starts[column]];
+            for (int i = 0; i < field.length; i++) {
+                field[i] = bytes.get(starts[column] + i);
+            }
+            String text = new String(field, StandardCharsets.UTF_8);
+            // only a quoted field escapes its quotes by doubling them
+            return quoted[column] ? text.replace("\"\"", "\"") : text;
+        }
+    }
+}
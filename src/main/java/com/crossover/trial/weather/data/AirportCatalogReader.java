@@ -0,0 +1,114 @@
+package com.crossover.trial.weather.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads an airport catalog line by line, so a catalog of any size is parsed as it streams in. Two formats are
+ * understood: the airports.dat CSV format, parsed by {@link AirportCatalogParser}, and newline delimited JSON with
+ * one {@code {"iata": CODE, "latitude": deg, "longitude": deg}} object per line.
+ *
+ * @author code test administrator
+ */
+public final class AirportCatalogReader {
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private static final JsonParser JSON_PARSER = new JsonParser();
+
+    private AirportCatalogReader() {
+    }
+
+    /**
+     * Parse every line of a catalog, blank lines are skipped
+     *
+     * @param in       the catalog, UTF-8 encoded
+     * @param format   format of the catalog
+     * @param airports called with the airport of every valid line, in catalog order
+     * @param invalid  called with the 1 based number of every line that is not a valid airport
+     * @throws IOException if the catalog can not be read
+     */
+    public static void read(InputStream in, Format format, Consumer<AirportData> airports, IntConsumer invalid)
+            throws IOException {
+        if (format == Format.CSV) {
+            AirportCatalogParser.parse(in, row -> {
+                AirportData airport = row.toAirportData();
+                if (airport == null) {
+                    invalid.accept(row.lineNumber());
+                } else {
+                    airports.accept(airport);
+                }
+            });
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            AirportData airport = parseJsonLine(line);
+            if (airport == null) {
+                invalid.accept(lineNumber);
+            } else {
+                airports.accept(airport);
+            }
+        }
+    }
+
+    /**
+     * Parse a JSON object line
+     *
+     * @param line a line of the catalog
+     * @return the airport, null if the line is not a valid airport
+     */
+    public static AirportData parseJsonLine(String line) {
+        try {
+            JsonElement element = JSON_PARSER.parse(line);
+            if (!element.isJsonObject()) {
+                return null;
+            }
+            JsonObject object = element.getAsJsonObject();
+            return toAirport(string(object, "iata"), string(object, "latitude"), string(object, "longitude"));
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static String string(JsonObject object, String property) {
+        JsonElement value = object.get(property);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static AirportData toAirport(String iata, String latString, String longString) {
+        if (!IataCode.isValid(iata) || latString == null || longString == null) {
+            return null;
+        }
+        double latitude;
+        double longitude;
+        try {
+            latitude = Double.parseDouble(latString);
+            longitude = Double.parseDouble(longString);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            return null;
+        }
+        return new AirportData(iata, latitude, longitude);
+    }
+}
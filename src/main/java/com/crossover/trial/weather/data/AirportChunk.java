@@ -0,0 +1,46 @@
+package com.crossover.trial.weather.data;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size block of per airport state, stored in parallel arrays indexed by the airport ordinal. Blocks never
+ * move once allocated, so growing the holder can not lose an update made concurrently to an existing airport.
+ *
+ * @author code test administrator
+ */
+final class AirportChunk {
+
+    static final int SHIFT = 10;
+
+    static final int SIZE = 1 << SHIFT;
+
+    static final int MASK = SIZE - 1;
+
+    /**
+     * airport data, null for a free ordinal. Written last on add and first on remove so that readers never see the
+     * other arrays of a half initialized airport
+     */
+    final AtomicReferenceArray<AirportData> airports = new AtomicReferenceArray<>(SIZE);
+
+    final AtomicReferenceArray<AtmosphericInformation> atmosphericInformation = new AtomicReferenceArray<>(SIZE);
+
+    /**
+     * striped query counters, so that concurrent queries for the same hub never contend on a single value. A new
+     * counter is installed whenever an ordinal is handed out, unless queries are counted in a sketch
+     */
+    final LongAdder[] requestCounts = new LongAdder[SIZE];
+
+    /**
+     * recent data points by {@link DataPointType#ordinal()}, installed whenever an ordinal is handed out unless the
+     * history is turned off
+     */
+    final DataPointHistory[][] history = new DataPointHistory[SIZE][];
+
+    /**
+     * position of every airport on the unit sphere
+     */
+    final double[] x = new double[SIZE];
+    final double[] y = new double[SIZE];
+    final double[] z = new double[SIZE];
+}
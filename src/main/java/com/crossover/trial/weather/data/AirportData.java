@@ -25,10 +25,33 @@ public class AirportData {
      */
     private double longitude;
 
+    /**
+     * latitude value in radians
+     */
+    private double latitudeRadians;
+
+    /**
+     * longitude value in radians
+     */
+    private double longitudeRadians;
+
+    /**
+     * position of the airport on the unit sphere, distances can be compared on it without any trigonometry
+     */
+    private double x;
+    private double y;
+    private double z;
+
     public AirportData(String iata, double latitude, double longitude) {
         this.iata = iata;
         this.latitude = latitude;
         this.longitude = longitude;
+        this.latitudeRadians = Math.toRadians(latitude);
+        this.longitudeRadians = Math.toRadians(longitude);
+        double cosLatitude = Math.cos(latitudeRadians);
+        this.x = cosLatitude * Math.cos(longitudeRadians);
+        this.y = cosLatitude * Math.sin(longitudeRadians);
+        this.z = Math.sin(latitudeRadians);
     }
 
     public String getIata() {
@@ -43,6 +66,51 @@ public class AirportData {
         return longitude;
     }
 
+    public double latitudeRadians() {
+        return latitudeRadians;
+    }
+
+    public double longitudeRadians() {
+        return longitudeRadians;
+    }
+
+    double unitX() {
+        return x;
+    }
+
+    double unitY() {
+        return y;
+    }
+
+    double unitZ() {
+        return z;
+    }
+
+    /**
+     * Squared length of the straight line between two airports on the unit sphere. It grows monotonically with the
+     * great circle distance, so it can be compared against {@link #squaredChord(double)} instead of a distance.
+     *
+     * @param other the other airport
+     * @return squared chord length, between 0 and 4
+     */
+    public double squaredChordTo(AirportData other) {
+        double dx = x - other.x;
+        double dy = y - other.y;
+        double dz = z - other.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Squared chord length on the unit sphere for a central angle
+     *
+     * @param angle central angle in radians
+     * @return squared chord length, between 0 and 4
+     */
+    public static double squaredChord(double angle) {
+        double chord = 2 * Math.sin(Math.min(angle, Math.PI) / 2);
+        return chord * chord;
+    }
+
 
     public String toString() {
         return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
@@ -52,4 +120,8 @@ public class AirportData {
         return other instanceof AirportData && ((AirportData) other).getIata().equals(this.getIata());
 
     }
+
+    public int hashCode() {
+        return iata.hashCode();
+    }
 }
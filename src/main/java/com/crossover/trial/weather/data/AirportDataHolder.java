@@ -1,12 +1,19 @@
 package com.crossover.trial.weather.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
 /**
- * The class will hold all the airport and weather related information
+ * The class will hold all the airport and weather related information. Every airport gets a dense ordinal when it is
+ * added, and all per airport state lives in parallel arrays indexed by that ordinal. The IATA code to ordinal map is
+ * the only hashed lookup. Adding and removing airports is serialized, all reads are lock free.
  *
  * @author code test adminsitrator
  */
@@ -16,33 +23,121 @@ public class AirportDataHolder {
     private static volatile AirportDataHolder instance;
 
     /**
-     * Internal map to store airport data against IATA code
+     * Radius histogram tracks up to 2^15 km, beyond the largest distance between two points on earth
      */
-    private Map<String, AirportData> airportDataMap;
+    private static final int RADIUS_MAGNITUDE_BITS = 15;
 
     /**
-     * Internal map to store atmospheric information against IATA code
+     * Readings older than one day are not counted as data, expired with a granularity of one second
      */
-    private Map<String, AtmosphericInformation> atmosphericInformationMap;
+    private static final long FRESH_DATA_MILLIS = 86400000;
+    private static final long FRESH_DATA_BUCKET_MILLIS = 1000;
 
     /**
-     * Internal performance counter to better understand most requested information, this map can be improved but
-     * for now provides the basis for future performance optimizations. Due to the stateless deployment architecture
-     * we don't want to write this to disk, but will pull it off using a REST request and aggregate with other
-     * performance metrics
+     * "exact" keeps a query counter per airport, "sketch" counts queries in fixed memory with a
+     * {@link HeavyHitterTracker}, exact only for the most queried airports
      */
-    private Map<AirportData, Integer> requestFrequencyMap;
+    public static final String REQUEST_FREQUENCY_MODE = System.getProperty("weather.requestFrequency.mode", "exact");
+    public static final int REQUEST_FREQUENCY_TOP_N = Integer.getInteger("weather.requestFrequency.topN", 100);
+    public static final int REQUEST_FREQUENCY_SKETCH_WIDTH =
+            Integer.getInteger("weather.requestFrequency.sketchWidth", 4096);
 
     /**
-     * Internal map to store radius frequency details
+     * Data points kept uncompressed per airport and point type for history queries, 0 turns the history off. Every
+     * airport costs 32 bytes per data point and point type, allocated when it is added so that updates never
+     * allocate
      */
-    private Map<Double, Integer> radiusFreqMap;
+    public static final int HISTORY_CAPACITY = Integer.getInteger("weather.history.capacity", 0);
 
-    private AirportDataHolder() {
-        airportDataMap = new ConcurrentHashMap<>();
-        atmosphericInformationMap = new ConcurrentHashMap<>();
-        requestFrequencyMap = new ConcurrentHashMap<>();
-        radiusFreqMap = new ConcurrentHashMap<>();
+    /**
+     * Compressed blocks of {@link #HISTORY_CAPACITY} older data points kept per airport and point type, see
+     * {@link HistoryBlock}. With 0 the oldest data point is overwritten instead.
+     */
+    public static final int HISTORY_BLOCKS = Integer.getInteger("weather.history.blocks", 0);
+
+    /**
+     * Returned by {@link #swap} when an update keeps the current record
+     */
+    private static final AtmosphericInformation UNCHANGED = new AtmosphericInformation();
+
+    /**
+     * Internal map to find the ordinal of an airport from its packed IATA code
+     */
+    private IataOrdinalMap ordinals;
+
+    /**
+     * Per airport state, ordinal {@code o} lives at index {@code o & MASK} of chunk {@code o >> SHIFT}
+     */
+    private volatile AirportChunk[] chunks;
+
+    /**
+     * Ordinals released by removed airports, reused before new ones are handed out. Guarded by this holder
+     */
+    private int[] freeOrdinals;
+    private int freeCount;
+
+    /**
+     * Next never used ordinal, all ordinals below it have been handed out at least once. Guarded by this holder
+     */
+    private int nextOrdinal;
+
+    /**
+     * Internal histogram of the query radius, in km
+     */
+    private LogLinearHistogram radiusHistogram;
+
+    /**
+     * Grid over the airport coordinates to answer radius queries without scanning every airport
+     */
+    private AirportSpatialIndex spatialIndex;
+
+    /**
+     * Number of airports with a recent reading, maintained on every update so that it is never computed by a scan
+     */
+    private FreshDataCounter freshDataCounter;
+
+    /**
+     * Number of airports added or removed and of atmospheric records replaced, lets derived views such as the
+     * cached ping payload tell whether they are out of date
+     */
+    private LongAdder modificationCount;
+
+    /**
+     * Query counts in sketch mode, null when every airport has its own counter
+     */
+    private HeavyHitterTracker requestSketch;
+
+    /**
+     * Notified of every added and removed airport
+     */
+    private List<AirportDataListener> listeners;
+
+    /**
+     * Data points kept per airport and point type, see {@link #HISTORY_CAPACITY} and {@link #HISTORY_BLOCKS}
+     */
+    private final int historyCapacity;
+    private final int historyBlocks;
+
+    AirportDataHolder() {
+        this(HISTORY_CAPACITY, HISTORY_BLOCKS);
+    }
+
+    AirportDataHolder(int historyCapacity, int historyBlocks) {
+        this.historyCapacity = historyCapacity;
+        this.historyBlocks = historyBlocks;
+        ordinals = new IataOrdinalMap();
+        chunks = new AirportChunk[0];
+        freeOrdinals = new int[16];
+        radiusHistogram = new LogLinearHistogram(RADIUS_MAGNITUDE_BITS);
+        spatialIndex = new AirportSpatialIndex();
+        freshDataCounter = new FreshDataCounter(FRESH_DATA_MILLIS, FRESH_DATA_BUCKET_MILLIS);
+        modificationCount = new LongAdder();
+        listeners = new CopyOnWriteArrayList<>();
+        if ("sketch".equalsIgnoreCase(REQUEST_FREQUENCY_MODE)) {
+            requestSketch = new HeavyHitterTracker(REQUEST_FREQUENCY_TOP_N, REQUEST_FREQUENCY_SKETCH_WIDTH);
+        } else if (!"exact".equalsIgnoreCase(REQUEST_FREQUENCY_MODE)) {
+            LOGGER.warning("Unknown request frequency mode " + REQUEST_FREQUENCY_MODE + ", counting exactly");
+        }
     }
 
     public static AirportDataHolder getInstance() {
@@ -57,72 +152,245 @@ public class AirportDataHolder {
 
     }
 
+    /**
+     * Get radius frequency histogram
+     *
+     * @return radiusHistogram
+     */
+    public LogLinearHistogram getRadiusHistogram() {
+        return radiusHistogram;
+    }
+
+    /**
+     * Get the number of airports with a reading from the last day
+     *
+     * @return number of airports with recent data
+     */
+    public int getFreshDataCount() {
+        return freshDataCounter.count(System.currentTimeMillis());
+    }
 
     /**
-     * Get request frequency map
+     * Register a listener for added and removed airports
      *
-     * @return requestFrequencyMap
+     * @param listener the listener
      */
-    public Map<AirportData, Integer> getRequestFrequencyMap() {
-        return requestFrequencyMap;
+    public void addListener(AirportDataListener listener) {
+        listeners.add(listener);
     }
 
     /**
-     * Get radius frequency map
+     * Get the number of modifications made to the airports and their atmospheric information. Queries are not
+     * modifications.
      *
-     * @return radiusFreqMap
+     * @return a counter that only grows
      */
-    public Map<Double, Integer> getRadiusFreqMap() {
-        return radiusFreqMap;
+    public long getModificationCount() {
+        return modificationCount.sum();
     }
 
     /**
-     * Get all the airport data from airportDataMap
+     * Get all the known airports
      *
-     * @return all known airports
+     * @return a snapshot of all known airports
      */
-    public Collection<AirportData> getAirportDataMap() {
-        return airportDataMap.values();
+    public Collection<AirportData> getAllAirportData() {
+        List<AirportData> airports = new ArrayList<>();
+        forEachOrdinal(ordinal -> airports.add(getAirportData(ordinal)));
+        airports.removeIf(airport -> airport == null);
+        return airports;
     }
 
     /**
-     * atmospheric information for each airport, idx corresponds with airportDataMap
+     * Get the atmospheric information of all the known airports
      *
-     * @return all known atmospheric information
+     * @return a snapshot of all the atmospheric information available
      */
     public Collection<AtmosphericInformation> getAllAtmosphericInformation() {
-        return atmosphericInformationMap.values();
+        List<AtmosphericInformation> atmosphericInformation = new ArrayList<>();
+        forEachOrdinal(ordinal -> atmosphericInformation.add(getAtmosphericInformation(ordinal)));
+        atmosphericInformation.removeIf(information -> information == null);
+        return atmosphericInformation;
+    }
+
+    /**
+     * Visit the ordinal of every known airport
+     *
+     * @param action called once for every ordinal in use
+     */
+    public void forEachOrdinal(IntConsumer action) {
+        AirportChunk[] chunks = this.chunks;
+        for (int c = 0; c < chunks.length; c++) {
+            for (int i = 0; i < AirportChunk.SIZE; i++) {
+                if (chunks[c].airports.get(i) != null) {
+                    action.accept((c << AirportChunk.SHIFT) | i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit the ordinal of every airport within the given distance of an airport, including the airport itself
+     *
+     * @param ordinal       ordinal of the airport at the center of the query
+     * @param angularRadius query radius as a central angle in radians
+     * @param action        called once for every airport in range
+     */
+    public void forEachOrdinalWithin(int ordinal, double angularRadius, IntConsumer action) {
+        AirportChunk[] chunks = this.chunks;
+        AirportChunk centerChunk = chunks[ordinal >> AirportChunk.SHIFT];
+        int centerIndex = ordinal & AirportChunk.MASK;
+        // the coordinates are published by the slot, and rewritten when a removed ordinal is reused
+        AirportData center = centerChunk.airports.get(centerIndex);
+        if (center == null) {
+            return;
+        }
+        double x = centerChunk.x[centerIndex];
+        double y = centerChunk.y[centerIndex];
+        double z = centerChunk.z[centerIndex];
+        if (centerChunk.airports.get(centerIndex) != center) {
+            return;
+        }
+        double maxSquaredChord = AirportData.squaredChord(angularRadius);
+
+        spatialIndex.forEachCandidate(center, angularRadius, candidate -> {
+            int c = candidate >> AirportChunk.SHIFT;
+            // an airport added concurrently may already be indexed in a chunk grown after the walk started
+            AirportChunk[] current = c < chunks.length ? chunks : this.chunks;
+            if (c >= current.length) {
+                return;
+            }
+            AirportChunk chunk = current[c];
+            int i = candidate & AirportChunk.MASK;
+            AirportData airport = chunk.airports.get(i);
+            if (airport == null) {
+                return;
+            }
+            double dx = chunk.x[i] - x;
+            double dy = chunk.y[i] - y;
+            double dz = chunk.z[i] - z;
+            if (dx * dx + dy * dy + dz * dz <= maxSquaredChord && chunk.airports.get(i) == airport) {
+                action.accept(candidate);
+            }
+        });
     }
 
     /**
-     * Add airport data to concurrent hash map. Hence it will guarantee concurrency and atmoic operation
-     * of checking whether key exists, and then add key.
+     * Add airport data with a new ordinal, unless an airport with the same IATA code already exists.
      *
-     * @param iataCode iata code of airport
+     * @param iataCode iata code of airport, see {@link IataCode#isValid(CharSequence)}
      * @param data     airport data
      * @return whether airport data added or not
      */
     public boolean addAirportData(String iataCode, AirportData data) {
-        AirportData airportDataExisting = airportDataMap.putIfAbsent(iataCode, data);
-        if (airportDataExisting == null) {
-            AtmosphericInformation atm = new AtmosphericInformation();
-            atmosphericInformationMap.put(iataCode, atm);
-            return true;
-        } else {
+        int key = IataCode.pack(iataCode);
+        if (key == IataCode.INVALID) {
+            throw new IllegalArgumentException("Not a valid IATA code: " + iataCode);
+        }
+        try {
+            return addLockedAirportData(key, data);
+        } finally {
+            writeLockReleased();
+        }
+    }
+
+    private synchronized boolean addLockedAirportData(int key, AirportData data) {
+        if (ordinals.get(key) != IataOrdinalMap.ABSENT) {
             return false;
         }
+        int ordinal = place(data);
+        spatialIndex.add(ordinal, data);
+        ordinals.put(key, ordinal);
+        modificationCount.increment();
+        for (AirportDataListener listener : listeners) {
+            listener.airportAdded(ordinal, data);
+        }
+        return true;
     }
 
     /**
-     * Add atmospheric information to concurrent hash map. Hence it will guarantee concurrency.
-     * No need to check whether key exists or not as no call to this method whenever it exists
+     * Add a batch of airports under a single lock, updating the spatial index once for the whole batch. An airport
+     * is skipped if one with the same IATA code already exists, or comes earlier in the batch.
      *
-     * @param iataCode    iata code of airport
-     * @param information atmospheric information
+     * @param batch airport data, every IATA code must be valid, see {@link IataCode#isValid(CharSequence)}
+     * @return whether each airport was added, in batch order
      */
-    public void addAtmosphericInformation(String iataCode, AtmosphericInformation information) {
-        atmosphericInformationMap.put(iataCode, information);
+    public boolean[] addAllAirportData(List<AirportData> batch) {
+        for (AirportData data : batch) {
+            if (!IataCode.isValid(data.getIata())) {
+                throw new IllegalArgumentException("Not a valid IATA code: " + data.getIata());
+            }
+        }
+        try {
+            return addAllLockedAirportData(batch);
+        } finally {
+            writeLockReleased();
+        }
+    }
 
+    private synchronized boolean[] addAllLockedAirportData(List<AirportData> batch) {
+        boolean[] added = new boolean[batch.size()];
+        int[] addedOrdinals = new int[batch.size()];
+        AirportData[] addedData = new AirportData[batch.size()];
+        int count = 0;
+        for (int b = 0; b < added.length; b++) {
+            AirportData data = batch.get(b);
+            int key = IataCode.pack(data.getIata());
+            if (ordinals.get(key) == IataOrdinalMap.ABSENT) {
+                int ordinal = place(data);
+                // visible to lookups right away, radius queries find the batch once the index is updated below
+                ordinals.put(key, ordinal);
+                addedOrdinals[count] = ordinal;
+                addedData[count++] = data;
+                added[b] = true;
+            }
+        }
+        spatialIndex.addAll(addedOrdinals, addedData, count);
+        modificationCount.add(count);
+        for (int a = 0; a < count; a++) {
+            for (AirportDataListener listener : listeners) {
+                listener.airportAdded(addedOrdinals[a], addedData[a]);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Allocate an ordinal and store the per airport state of a new airport, the caller indexes it
+     *
+     * @return the ordinal of the airport
+     */
+    private int place(AirportData data) {
+        int ordinal = allocateOrdinal();
+        AirportChunk chunk = chunks[ordinal >> AirportChunk.SHIFT];
+        int i = ordinal & AirportChunk.MASK;
+        chunk.x[i] = data.unitX();
+        chunk.y[i] = data.unitY();
+        chunk.z[i] = data.unitZ();
+        chunk.requestCounts[i] = requestSketch == null ? new LongAdder() : null;
+        chunk.history[i] = historyCapacity > 0 ? newHistory() : null;
+        chunk.atmosphericInformation.set(i, new AtmosphericInformation());
+        chunk.airports.set(i, data);
+        return ordinal;
+    }
+
+    private DataPointHistory[] newHistory() {
+        DataPointHistory[] history = new DataPointHistory[DataPointType.values().length];
+        for (int t = 0; t < history.length; t++) {
+            history[t] = new DataPointHistory(historyCapacity, historyBlocks);
+        }
+        return history;
+    }
+
+    /**
+     * Given an iataCode find the ordinal of the airport
+     *
+     * @param iataCode as a string
+     * @return ordinal of the airport or -1 if not found
+     */
+    public int findOrdinal(String iataCode) {
+        int key = IataCode.pack(iataCode);
+        return key == IataCode.INVALID ? -1 : ordinals.get(key);
     }
 
     /**
@@ -132,55 +400,251 @@ public class AirportDataHolder {
      * @return airport data or null if not found
      */
     public AirportData findAirportData(String iataCode) {
-        return airportDataMap.get(iataCode);
+        int ordinal = findOrdinal(iataCode);
+        return ordinal < 0 ? null : getAirportData(ordinal);
     }
 
     /**
-     * Given an iataCode find the airport data
+     * Given an iataCode find the atmospheric information
      *
      * @param iataCode as a string
-     * @return airport data or null if not found
+     * @return atmospheric information or null if not found
      */
     public AtmosphericInformation findAtmosphericInformation(String iataCode) {
-        return atmosphericInformationMap.get(iataCode);
+        int ordinal = findOrdinal(iataCode);
+        return ordinal < 0 ? null : getAtmosphericInformation(ordinal);
+    }
+
+    /**
+     * Get the airport data stored under an ordinal
+     *
+     * @param ordinal airport ordinal
+     * @return airport data or null if the ordinal is not in use
+     */
+    public AirportData getAirportData(int ordinal) {
+        return chunks[ordinal >> AirportChunk.SHIFT].airports.get(ordinal & AirportChunk.MASK);
+    }
+
+    /**
+     * Get the atmospheric information stored under an ordinal
+     *
+     * @param ordinal airport ordinal
+     * @return atmospheric information or null if the ordinal is not in use
+     */
+    public AtmosphericInformation getAtmosphericInformation(int ordinal) {
+        return chunks[ordinal >> AirportChunk.SHIFT].atmosphericInformation.get(ordinal & AirportChunk.MASK);
     }
 
     /**
-     * Get all the atmospheric information
+     * Count a query for the airport stored under an ordinal
      *
-     * @return all the atmospheric information available
+     * @param ordinal airport ordinal
      */
-    public Collection<AtmosphericInformation> getAtmosphericInformationMap() {
-        return atmosphericInformationMap.values();
+    public void recordRequest(int ordinal) {
+        if (requestSketch == null) {
+            chunks[ordinal >> AirportChunk.SHIFT].requestCounts[ordinal & AirportChunk.MASK].increment();
+            return;
+        }
+        AirportData data = getAirportData(ordinal);
+        if (data != null) {
+            requestSketch.record(IataCode.pack(data.getIata()));
+        }
+    }
+
+    /**
+     * Get the number of queries made for the airport stored under an ordinal
+     *
+     * @param ordinal airport ordinal
+     * @return number of queries since the airport was added, in sketch mode an estimate that is never too low
+     */
+    public long getRequestCount(int ordinal) {
+        if (requestSketch == null) {
+            return chunks[ordinal >> AirportChunk.SHIFT].requestCounts[ordinal & AirportChunk.MASK].sum();
+        }
+        AirportData data = getAirportData(ordinal);
+        return data == null ? 0 : requestSketch.estimate(IataCode.pack(data.getIata()));
+    }
+
+    /**
+     * Get the number of uncompressed data points kept per airport and point type
+     *
+     * @return capacity of every history ring, 0 if the history is turned off
+     */
+    public int getHistoryCapacity() {
+        return historyCapacity;
     }
 
     /**
-     * Remove airport data from the concurrent hash map while ensuring atomicity of removing data from it
+     * Append a data point to the history of an airport. The history is kept in memory only, it is not journaled.
+     *
+     * @param iataCode  IATA code of airport
+     * @param pointType type of the data point
+     * @param time      time of the data point in milliseconds since UTC epoch
+     * @param dataPoint the data point
+     */
+    public void recordHistory(String iataCode, DataPointType pointType, long time, DataPoint dataPoint) {
+        int ordinal = findOrdinal(iataCode);
+        DataPointHistory history = ordinal < 0 ? null : getHistory(ordinal, pointType);
+        if (history != null) {
+            history.record(time, dataPoint);
+        }
+    }
+
+    /**
+     * Get the recent data points of a type stored under an ordinal
+     *
+     * @param ordinal   airport ordinal
+     * @param pointType type of the data points
+     * @return the history, null if the ordinal is not in use or the history is turned off
+     */
+    public DataPointHistory getHistory(int ordinal, DataPointType pointType) {
+        DataPointHistory[] history = chunks[ordinal >> AirportChunk.SHIFT].history[ordinal & AirportChunk.MASK];
+        return history == null ? null : history[pointType.ordinal()];
+    }
+
+    /**
+     * Remove airport data and release its ordinal for reuse
      *
      * @param iataCode IATA code of airport
      * @return whether data removed or not
      */
     public boolean removeAirportData(String iataCode) {
-        AirportData data = airportDataMap.remove(iataCode);
-        if (data == null) {
+        try {
+            return removeLockedAirportData(iataCode);
+        } finally {
+            writeLockReleased();
+        }
+    }
+
+    private synchronized boolean removeLockedAirportData(String iataCode) {
+        int key = IataCode.pack(iataCode);
+        int ordinal = key == IataCode.INVALID ? IataOrdinalMap.ABSENT : ordinals.remove(key);
+        if (ordinal == IataOrdinalMap.ABSENT) {
             return false;
-        } else {
-            atmosphericInformationMap.remove(iataCode);
-            return true;
         }
+        AirportChunk chunk = chunks[ordinal >> AirportChunk.SHIFT];
+        int i = ordinal & AirportChunk.MASK;
+        AirportData data = chunk.airports.getAndSet(i, null);
+        AtmosphericInformation last = chunk.atmosphericInformation.getAndSet(i, null);
+        chunk.history[i] = null;
+        freshDataCounter.remove(last.getLastUpdateTime());
+        spatialIndex.remove(ordinal, data);
+        modificationCount.increment();
+        for (AirportDataListener listener : listeners) {
+            listener.airportRemoved(ordinal, data);
+        }
+        releaseOrdinal(ordinal);
+        return true;
+    }
+
+    /**
+     * Update atmospheric information of an existing airport without locking. The update function is applied to the
+     * current record and the result is swapped in with a compare and set, concurrent updates of the same airport
+     * retry on the newer record so none of them is lost.
+     *
+     * @param iataCode IATA code of airport
+     * @param update   creates the updated record from the current one, may be called more than once
+     * @return whether atmospheric information updated or not
+     */
+    public boolean updateAtmosphericInformation(String iataCode, UnaryOperator<AtmosphericInformation> update) {
+        return updateAtmosphericInformation(iataCode, null, update);
     }
 
     /**
-     * Update atmospheric information while ensuring atomicity of checking weather
-     * atmospheric information exists and update the value
+     * Update atmospheric information of an existing airport as {@link #updateAtmosphericInformation(String,
+     * UnaryOperator)} does, and append the data point of the given type of the swapped in record to the history of
+     * the airport. With the history turned on, updates setting the same type of one airport are swapped in and
+     * appended while its history is locked, so the history follows the versions of the records.
      *
-     * @param iataCode               IATA code of airport
-     * @param atmosphericInformation updated atmospheric information
+     * @param iataCode  IATA code of airport
+     * @param pointType type of the data point the update sets, null to leave the history alone
+     * @param update    creates the updated record from the current one, may be called more than once, returns the
+     *                  current record to ignore the data point
      * @return whether atmospheric information updated or not
      */
-    public boolean updateAtmosphericInformation(String iataCode, AtmosphericInformation atmosphericInformation) {
-        AtmosphericInformation atmosphericInformationExisting =
-                atmosphericInformationMap.replace(iataCode, atmosphericInformation);
-        return atmosphericInformationExisting != null;
+    public boolean updateAtmosphericInformation(String iataCode, DataPointType pointType,
+                                                UnaryOperator<AtmosphericInformation> update) {
+        int ordinal = findOrdinal(iataCode);
+        if (ordinal < 0) {
+            return false;
+        }
+        AirportChunk chunk = chunks[ordinal >> AirportChunk.SHIFT];
+        int i = ordinal & AirportChunk.MASK;
+        AirportData airport = chunk.airports.get(i);
+        // read after the airport, so the history belongs to it unless the airport check of the swap fails
+        DataPointHistory[] histories = pointType == null ? null : chunk.history[i];
+        AtmosphericInformation updated;
+        if (histories == null) {
+            updated = swap(chunk, i, airport, update);
+        } else {
+            DataPointHistory history = histories[pointType.ordinal()];
+            synchronized (history) {
+                updated = swap(chunk, i, airport, update);
+                if (updated != null && updated != UNCHANGED) {
+                    history.record(updated.getLastUpdateTime(), updated.dataPoint(pointType));
+                }
+            }
+        }
+        if (updated == null) {
+            return false;
+        }
+        if (updated != UNCHANGED) {
+            for (AirportDataListener listener : listeners) {
+                listener.atmosphericInformationUpdated(ordinal, airport, updated);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Swap in the updated record of an airport
+     *
+     * @return the swapped in record, {@link #UNCHANGED} if the update kept the current one, null if the airport was
+     * removed
+     */
+    private AtmosphericInformation swap(AirportChunk chunk, int i, AirportData airport,
+                                        UnaryOperator<AtmosphericInformation> update) {
+        while (true) {
+            AtmosphericInformation current = chunk.atmosphericInformation.get(i);
+            // the airport may have been removed, or its ordinal handed to another airport in the meantime
+            if (current == null || chunk.airports.get(i) != airport) {
+                return null;
+            }
+            AtmosphericInformation updated = update.apply(current);
+            if (updated == current) {
+                return UNCHANGED;
+            }
+            if (chunk.atmosphericInformation.compareAndSet(i, current, updated)) {
+                freshDataCounter.update(current.getLastUpdateTime(), updated.getLastUpdateTime());
+                modificationCount.increment();
+                return updated;
+            }
+        }
+    }
+
+    private void writeLockReleased() {
+        for (AirportDataListener listener : listeners) {
+            listener.writeLockReleased();
+        }
+    }
+
+    private int allocateOrdinal() {
+        if (freeCount > 0) {
+            return freeOrdinals[--freeCount];
+        }
+        int ordinal = nextOrdinal++;
+        if ((ordinal >> AirportChunk.SHIFT) == chunks.length) {
+            AirportChunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new AirportChunk();
+            chunks = grown;
+        }
+        return ordinal;
+    }
+
+    private void releaseOrdinal(int ordinal) {
+        if (freeCount == freeOrdinals.length) {
+            freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        }
+        freeOrdinals[freeCount++] = ordinal;
     }
 }
@@ -0,0 +1,705 @@
+package com.crossover.trial.weather.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Makes the state of an {@link AirportDataHolder} durable. Every add, remove and atmospheric update is appended to a
+ * binary write ahead log, and a snapshot of the whole holder is written periodically, after which the log segments
+ * it covers are deleted. On startup the latest snapshot is memory mapped and loaded, and the log written since is
+ * replayed on top of it.
+ * <p>
+ * Appends only copy the record into a buffer, a flusher thread writes and fsyncs whatever accumulated within
+ * {@link #GROUP_COMMIT_MILLIS}, so a burst of updates shares a single fsync. In sync mode every mutation waits until
+ * its record is on disk, and fails with an {@link UncheckedIOException} if it could not be written. Airports added
+ * or removed are awaited once the holder lock is released, so a batch of airports waits once and other writers are
+ * not held up by the fsync. Records are appended by the listener callbacks, after the change is visible in the
+ * holder, so a mutation failing this way is not undone: readers see it until a restart, which loses it. The failure
+ * only tells the caller that the change is not durable.
+ * <p>
+ * Records are framed with their length and a CRC, so a write torn by a crash ends the replay of its segment. A
+ * failed write abandons its segment and the log continues in a new one, so records written after a torn frame are
+ * still replayed. Replay is idempotent: updates carry the complete record and its version, and only replace an older
+ * version, so a record contained in the snapshot as well as in the log is applied once. An update is only logged
+ * while its airport is still in the holder, so it never follows the removal of that airport in the log.
+ * <p>
+ * Files in the data directory: {@code wal-N.log} are log segments, {@code snapshot-N.dat} holds the state before
+ * segment {@code N}.
+ *
+ * @author code test administrator
+ */
+public class AirportDataJournal implements AirportDataListener {
+    public final static Logger LOGGER = Logger.getLogger(AirportDataJournal.class.getName());
+
+    /**
+     * directory of the log and snapshots, persistence is off when not set
+     */
+    public static final String DATA_DIR = System.getProperty("weather.data.dir");
+
+    /**
+     * how long the flusher collects records before writing them with a single fsync
+     */
+    public static final long GROUP_COMMIT_MILLIS = Long.getLong("weather.journal.groupCommitMillis", 2);
+
+    /**
+     * whether mutations wait until their record is on disk
+     */
+    public static final boolean SYNC = Boolean.getBoolean("weather.journal.sync");
+
+    /**
+     * interval between snapshots, 0 to only write one on close
+     */
+    public static final long SNAPSHOT_MILLIS = Long.getLong("weather.journal.snapshotMillis", 60000);
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte UPDATE = 3;
+
+    /**
+     * frame header: payload length and CRC
+     */
+    private static final int FRAME_HEADER = 8;
+
+    /**
+     * largest payload, an update with every point type
+     */
+    private static final int MAX_PAYLOAD = 1 + 4 + 4 + 8 + 8 + 8 * AtmosphericInformation.SLOT_WIDTH *
+            DataPointType.values().length;
+
+    private static final int SNAPSHOT_MAGIC = 0x57534e50;
+    private static final int SNAPSHOT_FORMAT = 1;
+
+    /**
+     * ends the airports of a snapshot, no packed IATA code is negative
+     */
+    private static final int SNAPSHOT_END = -1;
+
+    /**
+     * airports added to the holder at once during recovery
+     */
+    private static final int RECOVERY_BATCH_SIZE = 1000;
+
+    private static final int TYPES = DataPointType.values().length;
+
+    private final Path directory;
+
+    private final AirportDataHolder dataHolder;
+
+    /**
+     * whether mutations wait until their record is on disk, see {@link #SYNC}
+     */
+    private final boolean sync;
+
+    /**
+     * guards the pending records and their commit
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * guards the current segment, held while writing to it and while switching to the next one
+     */
+    private final Object segmentLock = new Object();
+
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+
+    private final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * outcome of writing the pending records
+     */
+    private Commit pendingCommit = new Commit();
+
+    /**
+     * commits of the airports a thread added or removed while holding the holder lock, awaited once it is released
+     */
+    private final ThreadLocal<List<Commit>> lockedCommits = ThreadLocal.withInitial(ArrayList::new);
+
+    private boolean closed;
+
+    private FileChannel segment;
+
+    private long segmentNumber;
+
+    private Thread flusher;
+
+    private ScheduledExecutorService snapshotter;
+
+    private AirportDataJournal(Path directory, AirportDataHolder dataHolder, boolean sync) {
+        this.directory = directory;
+        this.dataHolder = dataHolder;
+        this.sync = sync;
+    }
+
+    /**
+     * Recover the state stored in a directory into an empty holder, then journal every further change
+     *
+     * @param directory  the data directory, created if missing
+     * @param dataHolder the holder, should not be modified by anyone else until this returns
+     * @return the open journal, close it on shutdown to write a final snapshot
+     * @throws IOException if the directory can not be read or the log can not be created
+     */
+    public static AirportDataJournal open(Path directory, AirportDataHolder dataHolder) throws IOException {
+        return open(directory, dataHolder, SYNC);
+    }
+
+    static AirportDataJournal open(Path directory, AirportDataHolder dataHolder, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        AirportDataJournal journal = new AirportDataJournal(directory, dataHolder, sync);
+        journal.recover();
+        dataHolder.addListener(journal);
+        journal.flusher = new Thread(journal::flushLoop, "journal-flusher");
+        journal.flusher.setDaemon(true);
+        journal.flusher.start();
+        if (SNAPSHOT_MILLIS > 0) {
+            journal.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journal.snapshotter.scheduleWithFixedDelay(() -> {
+                try {
+                    journal.snapshot();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Could not write a snapshot", e);
+                }
+            }, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return journal;
+    }
+
+    @Override
+    public void airportAdded(int ordinal, AirportData data) {
+        Commit commit;
+        synchronized (appendLock) {
+            payload.clear();
+            payload.put(ADD).putInt(IataCode.pack(data.getIata()))
+                    .putDouble(data.getLatitude()).putDouble(data.getLongitude());
+            commit = append();
+        }
+        awaitLater(commit);
+    }
+
+    @Override
+    public void airportRemoved(int ordinal, AirportData data) {
+        Commit commit;
+        synchronized (appendLock) {
+            payload.clear();
+            payload.put(REMOVE).putInt(IataCode.pack(data.getIata()));
+            commit = append();
+        }
+        awaitLater(commit);
+    }
+
+    @Override
+    public void writeLockReleased() {
+        List<Commit> commits = lockedCommits.get();
+        if (commits.isEmpty()) {
+            return;
+        }
+        try {
+            // commits complete in order, so all of them are done once the last one is
+            awaitDurable(commits.get(commits.size() - 1));
+            for (Commit commit : commits) {
+                checkDurable(commit);
+            }
+        } finally {
+            commits.clear();
+        }
+    }
+
+    @Override
+    public void atmosphericInformationUpdated(int ordinal, AirportData data, AtmosphericInformation updated) {
+        Commit commit;
+        synchronized (appendLock) {
+            // a remove appends its record after clearing the slot, so an update of a removed airport can not be
+            // logged after the removal, where replay would apply it to an airport added again with the same code
+            if (dataHolder.getAirportData(ordinal) != data) {
+                return;
+            }
+            payload.clear();
+            payload.put(UPDATE).putInt(IataCode.pack(data.getIata()));
+            putRecord(payload, updated);
+            commit = append();
+        }
+        awaitDurable(commit);
+        checkDurable(commit);
+    }
+
+    /**
+     * Write the payload as the next record, called with the append lock held
+     *
+     * @return the commit writing the record, null once closed
+     */
+    private Commit append() {
+        if (closed) {
+            return null;
+        }
+        payload.flip();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+        if (pending.remaining() < FRAME_HEADER + payload.limit()) {
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.putInt(payload.limit()).putInt((int) crc.getValue()).put(payload);
+        appendLock.notifyAll();
+        return pendingCommit;
+    }
+
+    /**
+     * remember a commit to await once the holder lock is released, consecutive records mostly share their commit
+     */
+    private void awaitLater(Commit commit) {
+        if (!sync || commit == null) {
+            return;
+        }
+        List<Commit> commits = lockedCommits.get();
+        if (commits.isEmpty() || commits.get(commits.size() - 1) != commit) {
+            commits.add(commit);
+        }
+    }
+
+    private void awaitDurable(Commit commit) {
+        if (!sync || commit == null) {
+            return;
+        }
+        synchronized (appendLock) {
+            while (!commit.done && !closed) {
+                try {
+                    appendLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException in sync mode if the records of a done commit could not be written
+     */
+    private void checkDurable(Commit commit) {
+        if (!sync || commit == null) {
+            return;
+        }
+        synchronized (appendLock) {
+            if (commit.failure != null) {
+                throw new UncheckedIOException("Could not write the journal", commit.failure);
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (appendLock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        appendLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                // let concurrent mutations join this fsync
+                Thread.sleep(GROUP_COMMIT_MILLIS);
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not write the journal", e);
+            }
+        }
+    }
+
+    /**
+     * Write and fsync every pending record to the current segment. If that fails the records are lost, mutations
+     * waiting for them fail, and the log continues in a new segment.
+     *
+     * @throws IOException if the segment can not be written
+     */
+    void flush() throws IOException {
+        synchronized (segmentLock) {
+            Commit commit;
+            synchronized (appendLock) {
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                commit = pendingCommit;
+                pendingCommit = new Commit();
+            }
+            writing.flip();
+            IOException failure = null;
+            try {
+                if (segment == null) {
+                    segment = openSegment(segmentNumber);
+                }
+                while (writing.hasRemaining()) {
+                    segment.write(writing);
+                }
+                segment.force(false);
+            } catch (IOException e) {
+                failure = e;
+                abandonSegment();
+            } finally {
+                writing.clear();
+                synchronized (appendLock) {
+                    commit.done = true;
+                    commit.failure = failure;
+                    appendLock.notifyAll();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Continue the log in a new segment after a failed write, so that a frame torn by it can only end the replay of
+     * the abandoned segment. Called with the segment lock held.
+     */
+    private void abandonSegment() {
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not close the abandoned segment " + segmentNumber, e);
+            }
+        }
+        segment = null;
+        segmentNumber++;
+        try {
+            segment = openSegment(segmentNumber);
+        } catch (IOException e) {
+            // retried by the next flush
+            LOGGER.log(Level.SEVERE, "Could not start segment " + segmentNumber, e);
+        }
+    }
+
+    /**
+     * Start a new log segment, then write the state of the holder and delete the segments it covers. Every change
+     * logged before the switch is already visible in the holder, so the snapshot plus the new segments hold
+     * everything.
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    void snapshot() throws IOException {
+        long covered;
+        synchronized (segmentLock) {
+            flush();
+            if (segment != null) {
+                segment.close();
+            }
+            covered = ++segmentNumber;
+            segment = openSegment(covered);
+        }
+        Path temporary = directory.resolve("snapshot.tmp");
+        int[] count = new int[1];
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(new ChannelOutputStream(channel), checksum), 64 * 1024));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_FORMAT);
+            ByteBuffer record = ByteBuffer.allocate(MAX_PAYLOAD + 16);
+            dataHolder.forEachOrdinal(ordinal -> {
+                AirportData airport = dataHolder.getAirportData(ordinal);
+                AtmosphericInformation ai = dataHolder.getAtmosphericInformation(ordinal);
+                if (airport == null || ai == null) {
+                    return;
+                }
+                record.clear();
+                record.putInt(IataCode.pack(airport.getIata()))
+                        .putDouble(airport.getLatitude()).putDouble(airport.getLongitude());
+                putRecord(record, ai);
+                try {
+                    out.write(record.array(), 0, record.position());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+            out.writeInt(SNAPSHOT_END);
+            out.flush();
+            // the checksum covers everything before it
+            out.writeLong(checksum.getValue());
+            out.flush();
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temporary, directory.resolve(snapshotName(covered)), StandardCopyOption.ATOMIC_MOVE);
+        for (Path file : list("wal-", ".log").headMap(covered).values()) {
+            Files.delete(file);
+        }
+        for (Path file : list("snapshot-", ".dat").headMap(covered).values()) {
+            Files.delete(file);
+        }
+        LOGGER.info("Snapshot of " + count[0] + " airports written, log replay starts at segment " + covered);
+    }
+
+    /**
+     * Flush the log, write a final snapshot and stop journaling
+     */
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        try {
+            snapshot();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write the final snapshot", e);
+        }
+        synchronized (segmentLock) {
+            try {
+                flush();
+                if (segment != null) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not close the journal", e);
+            }
+            synchronized (appendLock) {
+                closed = true;
+                appendLock.notifyAll();
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> snapshots = list("snapshot-", ".dat");
+        TreeMap<Long, Path> segments = list("wal-", ".log");
+        long start = 0;
+        int airports = 0;
+        if (!snapshots.isEmpty()) {
+            start = snapshots.lastKey();
+            airports = loadSnapshot(snapshots.lastEntry().getValue());
+        }
+        int records = 0;
+        for (Path file : segments.tailMap(start).values()) {
+            records += replay(file);
+        }
+        segmentNumber = Math.max(start, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        segment = openSegment(segmentNumber);
+        if (airports > 0 || records > 0) {
+            LOGGER.info("Recovered " + airports + " airports from the snapshot and " + records + " logged changes");
+        }
+    }
+
+    private int loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (bytes.limit() < 20 || bytes.getInt(0) != SNAPSHOT_MAGIC || bytes.getInt(4) != SNAPSHOT_FORMAT) {
+                throw new IOException("Corrupt snapshot " + file);
+            }
+            CRC32 checksum = new CRC32();
+            ByteBuffer covered = bytes.duplicate();
+            covered.limit(bytes.limit() - 8);
+            checksum.update(covered);
+            if (bytes.getLong(bytes.limit() - 8) != checksum.getValue()) {
+                throw new IOException("Corrupt snapshot " + file);
+            }
+            bytes.position(8);
+            List<AirportData> batch = new ArrayList<>(RECOVERY_BATCH_SIZE);
+            List<AtmosphericInformation> records = new ArrayList<>(RECOVERY_BATCH_SIZE);
+            int count = 0;
+            int key;
+            while ((key = bytes.getInt()) != SNAPSHOT_END) {
+                batch.add(new AirportData(IataCode.unpack(key), bytes.getDouble(), bytes.getDouble()));
+                records.add(getRecord(bytes));
+                if (batch.size() == RECOVERY_BATCH_SIZE) {
+                    count += restore(batch, records);
+                }
+            }
+            return count + restore(batch, records);
+        }
+    }
+
+    private int restore(List<AirportData> batch, List<AtmosphericInformation> records) {
+        dataHolder.addAllAirportData(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            restore(batch.get(i).getIata(), records.get(i));
+        }
+        int count = batch.size();
+        batch.clear();
+        records.clear();
+        return count;
+    }
+
+    private void restore(String iata, AtmosphericInformation record) {
+        if (record.version() > 0) {
+            dataHolder.updateAtmosphericInformation(iata,
+                    current -> current.version() < record.version() ? record : current);
+        }
+    }
+
+    /**
+     * Apply the records of a segment, up to the first one that is incomplete or fails its CRC
+     *
+     * @return number of records applied
+     */
+    private int replay(Path file) throws IOException {
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 checksum = new CRC32();
+            while (bytes.remaining() >= FRAME_HEADER) {
+                int length = bytes.getInt();
+                int expected = bytes.getInt();
+                if (length <= 0 || length > MAX_PAYLOAD || length > bytes.remaining()) {
+                    break;
+                }
+                ByteBuffer record = bytes.slice();
+                record.limit(length);
+                checksum.reset();
+                checksum.update(record.duplicate());
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                apply(record);
+                bytes.position(bytes.position() + length);
+                records++;
+            }
+            if (bytes.hasRemaining()) {
+                LOGGER.warning("Ignoring " + bytes.remaining() + " bytes of a torn write at the end of " + file);
+            }
+        }
+        return records;
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        String iata = IataCode.unpack(record.getInt());
+        if (type == ADD) {
+            dataHolder.addAirportData(iata, new AirportData(iata, record.getDouble(), record.getDouble()));
+        } else if (type == REMOVE) {
+            dataHolder.removeAirportData(iata);
+        } else if (type == UPDATE) {
+            restore(iata, getRecord(record));
+        }
+    }
+
+    /**
+     * Write the present data points, time and version of a record
+     */
+    private static void putRecord(ByteBuffer buffer, AtmosphericInformation ai) {
+        int present = ai.present();
+        buffer.putInt(present).putLong(ai.getLastUpdateTime()).putLong(ai.version());
+        long[] slots = ai.slots();
+        for (int type = 0; type < TYPES; type++) {
+            if ((present & 1 << type) != 0) {
+                int from = type * AtmosphericInformation.SLOT_WIDTH;
+                for (int i = from; i < from + AtmosphericInformation.SLOT_WIDTH; i++) {
+                    buffer.putLong(slots[i]);
+                }
+            }
+        }
+    }
+
+    private static AtmosphericInformation getRecord(ByteBuffer buffer) {
+        int present = buffer.getInt();
+        long lastUpdateTime = buffer.getLong();
+        long version = buffer.getLong();
+        long[] slots = AtmosphericInformation.newSlots();
+        for (int type = 0; type < TYPES; type++) {
+            if ((present & 1 << type) != 0) {
+                int from = type * AtmosphericInformation.SLOT_WIDTH;
+                for (int i = from; i < from + AtmosphericInformation.SLOT_WIDTH; i++) {
+                    slots[i] = buffer.getLong();
+                }
+            }
+        }
+        return new AtmosphericInformation(slots, present, lastUpdateTime, version);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("wal-%016d.log", number)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static String snapshotName(long number) {
+        return String.format("snapshot-%016d.dat", number);
+    }
+
+    /**
+     * @return the files with the given prefix and suffix by the number between them
+     */
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Ignoring " + file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * outcome of writing the records pending between two flushes, guarded by the append lock
+     */
+    private static final class Commit {
+        boolean done;
+        IOException failure;
+    }
+
+    /**
+     * writes to a channel without the locking of {@link java.nio.channels.Channels#newOutputStream}
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
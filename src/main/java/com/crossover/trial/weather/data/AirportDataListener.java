@@ -0,0 +1,47 @@
+package com.crossover.trial.weather.data;
+
+/**
+ * Notified by {@link AirportDataHolder} when the set of known airports changes, and optionally of every atmospheric
+ * update. Add and remove callbacks run while the holder is locked for writing, after the change is visible to
+ * readers, so they must be short and must not add or remove airports themselves.
+ *
+ * @author code test administrator
+ */
+public interface AirportDataListener {
+
+    /**
+     * An airport was added
+     *
+     * @param ordinal ordinal of the new airport
+     * @param data    the new airport
+     */
+    void airportAdded(int ordinal, AirportData data);
+
+    /**
+     * An airport was removed
+     *
+     * @param ordinal the released ordinal, it may be handed to another airport right after this call
+     * @param data    the removed airport
+     */
+    void airportRemoved(int ordinal, AirportData data);
+
+    /**
+     * The thread that added or removed airports released the holder lock. Called once per add, remove or batch, so
+     * listeners that have to wait for the outcome of their add and remove callbacks wait here instead of while the
+     * holder is locked.
+     */
+    default void writeLockReleased() {
+    }
+
+    /**
+     * The atmospheric information of an airport was replaced. Called without a lock right after the new record is
+     * swapped in, so concurrent updates of the same airport may be reported in a different order than they were
+     * applied, {@link AtmosphericInformation#version()} tells which one is newer.
+     *
+     * @param ordinal ordinal of the airport
+     * @param data    the airport
+     * @param updated the new record
+     */
+    default void atmosphericInformationUpdated(int ordinal, AirportData data, AtmosphericInformation updated) {
+    }
+}
@@ -0,0 +1,165 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A latitude/longitude grid over the known airports, holding airport ordinals. Radius queries only visit the cells
+ * overlapping the bounding box of the query circle instead of every airport in the catalog. The grid returns
+ * candidates, callers still have to apply the exact distance check.
+ * <p>
+ * Cells are copy on write arrays: writers must be serialized by the caller, readers never block.
+ *
+ * @author code test administrator
+ */
+public class AirportSpatialIndex {
+
+    /**
+     * size of a grid cell in degrees, both for latitude and longitude
+     */
+    private static final int CELL_DEGREES = 1;
+
+    private static final int LAT_CELLS = 180 / CELL_DEGREES;
+
+    private static final int LON_CELLS = 360 / CELL_DEGREES;
+
+    /**
+     * widens the bounding box slightly so that rounding never drops an airport lying on a cell border
+     */
+    private static final double EPSILON_DEGREES = 1e-9;
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * airport ordinals per cell, row major by latitude, null for a cell that never held an airport
+     */
+    private final AtomicReferenceArray<int[]> cells = new AtomicReferenceArray<>(LAT_CELLS * LON_CELLS);
+
+    /**
+     * Add an airport to the cell covering its coordinates
+     *
+     * @param ordinal airport ordinal
+     * @param data    airport data
+     */
+    public void add(int ordinal, AirportData data) {
+        int cell = cellOf(data.getLatitude(), data.getLongitude());
+        int[] ordinals = cells.get(cell);
+        if (ordinals == null) {
+            ordinals = EMPTY;
+        }
+        int[] grown = Arrays.copyOf(ordinals, ordinals.length + 1);
+        grown[ordinals.length] = ordinal;
+        cells.set(cell, grown);
+    }
+
+    /**
+     * Add many airports at once, copying every affected cell only once
+     *
+     * @param ordinals airport ordinals
+     * @param data     airport data, at the same index as the ordinal
+     * @param count    number of airports to add from the start of both arrays
+     */
+    public void addAll(int[] ordinals, AirportData[] data, int count) {
+        // cell in the high half, ordinal in the low half, so sorting groups the airports by cell
+        long[] entries = new long[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = (long) cellOf(data[i].getLatitude(), data[i].getLongitude()) << 32 | ordinals[i];
+        }
+        Arrays.sort(entries);
+        for (int start = 0, end; start < count; start = end) {
+            int cell = (int) (entries[start] >>> 32);
+            end = start + 1;
+            while (end < count && (int) (entries[end] >>> 32) == cell) {
+                end++;
+            }
+            int[] existing = cells.get(cell);
+            if (existing == null) {
+                existing = EMPTY;
+            }
+            int[] grown = Arrays.copyOf(existing, existing.length + end - start);
+            for (int i = start; i < end; i++) {
+                grown[existing.length + i - start] = (int) entries[i];
+            }
+            cells.set(cell, grown);
+        }
+    }
+
+    /**
+     * Remove an airport from the cell covering its coordinates
+     *
+     * @param ordinal airport ordinal
+     * @param data    airport data
+     */
+    public void remove(int ordinal, AirportData data) {
+        int cell = cellOf(data.getLatitude(), data.getLongitude());
+        int[] ordinals = cells.get(cell);
+        if (ordinals == null) {
+            return;
+        }
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] == ordinal) {
+                int[] shrunk = Arrays.copyOf(ordinals, ordinals.length - 1);
+                System.arraycopy(ordinals, i + 1, shrunk, i, ordinals.length - i - 1);
+                cells.set(cell, shrunk);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Visit every airport in the cells overlapping the bounding box of the given circle
+     *
+     * @param center        center of the query circle
+     * @param angularRadius radius of the query circle as a central angle in radians
+     * @param action        called once with the ordinal of every candidate airport
+     */
+    public void forEachCandidate(AirportData center, double angularRadius, IntConsumer action) {
+        double lat = center.latitudeRadians();
+        double minLat = Math.toDegrees(lat - angularRadius) - EPSILON_DEGREES;
+        double maxLat = Math.toDegrees(lat + angularRadius) + EPSILON_DEGREES;
+
+        int minCol;
+        int maxCol;
+        if (minLat <= -90 || maxLat >= 90) {
+            // the circle covers a pole, so every longitude is in range
+            minCol = 0;
+            maxCol = LON_CELLS - 1;
+        } else {
+            double deltaLon = Math.toDegrees(Math.asin(Math.sin(angularRadius) / Math.cos(lat))) + EPSILON_DEGREES;
+            minCol = lonColumn(center.getLongitude() - deltaLon);
+            maxCol = lonColumn(center.getLongitude() + deltaLon);
+            if (maxCol - minCol >= LON_CELLS) {
+                minCol = 0;
+                maxCol = LON_CELLS - 1;
+            }
+        }
+
+        for (int row = latRow(minLat); row <= latRow(maxLat); row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                int[] ordinals = cells.get(row * LON_CELLS + Math.floorMod(col, LON_CELLS));
+                if (ordinals != null) {
+                    for (int ordinal : ordinals) {
+                        action.accept(ordinal);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cellOf(double latitude, double longitude) {
+        return latRow(latitude) * LON_CELLS + Math.floorMod(lonColumn(longitude), LON_CELLS);
+    }
+
+    private static int latRow(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, row));
+    }
+
+    /**
+     * longitude column, not wrapped so that a range crossing the antimeridian stays contiguous
+     */
+    private static int lonColumn(double longitude) {
+        return (int) Math.floor((longitude + 180) / CELL_DEGREES);
+    }
+}
@@ -1,103 +1,219 @@
 package com.crossover.trial.weather.data;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.annotations.JsonAdapter;
+
+import java.io.UncheckedIOException;
+
 /**
- * encapsulates sensor information for a particular location
+ * encapsulates sensor information for a particular location. Instances are immutable, an update creates a new
+ * record with the next version which is then swapped in atomically by {@link AirportDataHolder}.
+ * <p>
+ * Data points are not kept as objects, every point type has {@link #SLOT_WIDTH} packed slots in a single array,
+ * indexed by {@link DataPointType#ordinal()}. The getters create {@link DataPoint} views on demand.
  */
+@JsonPropertyOrder({"temperature", "wind", "humidity", "precipitation", "pressure", "cloudCover", "lastUpdateTime"})
+@JsonAdapter(AtmosphericInformationAdapter.class)
 public class AtmosphericInformation {
 
     /**
-     * temperature in degrees celsius
+     * slots per point type: the mean as double bits, first and second quartile, third quartile and count
+     */
+    static final int SLOT_WIDTH = 3;
+
+    private static final int TYPES = DataPointType.values().length;
+
+    /**
+     * shared by every record without data, never modified since updates copy the slots
      */
-    private DataPoint temperature;
+    private static final long[] NO_SLOTS = newSlots();
 
     /**
-     * wind speed in km/h
+     * same mapper configuration as the JSON provider of the REST endpoints
      */
-    private DataPoint wind;
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 
     /**
-     * humidity in percent
+     * packed data points, see {@link #SLOT_WIDTH}
      */
-    private DataPoint humidity;
+    private final long[] slots;
 
     /**
-     * precipitation in cm
+     * bit {@code 1 << ordinal} is set for every point type with a data point
      */
-    private DataPoint precipitation;
+    private final int present;
 
     /**
-     * pressure in mmHg
+     * the last time this data was updated, in milliseconds since UTC epoch
      */
-    private DataPoint pressure;
+    private final long lastUpdateTime;
 
     /**
-     * cloud cover percent from 0 - 100 (integer)
+     * incremented by every update of the airport, starting with 0 for an airport without any data
      */
-    private DataPoint cloudCover;
+    private final long version;
 
     /**
-     * the last time this data was updated, in milliseconds since UTC epoch
+     * JSON representation, built on first use. Records never change, so it is never out of date
      */
-    private long lastUpdateTime;
+    private transient volatile byte[] json;
 
     public AtmosphericInformation() {
+        this(NO_SLOTS, 0, 0, 0);
+    }
 
+    AtmosphericInformation(long[] slots, int present, long lastUpdateTime, long version) {
+        this.slots = slots;
+        this.present = present;
+        this.lastUpdateTime = lastUpdateTime;
+        this.version = version;
     }
 
+    /**
+     * Create the next version of this record with one data point replaced
+     *
+     * @param pointType      type of the data point
+     * @param dataPoint      the new data point
+     * @param lastUpdateTime time of the update in milliseconds since UTC epoch
+     * @return a new record, this one is left untouched
+     */
+    public AtmosphericInformation withDataPoint(DataPointType pointType, DataPoint dataPoint, long lastUpdateTime) {
+        long[] updated = slots.clone();
+        pack(updated, pointType, dataPoint);
+        return new AtmosphericInformation(updated, present | 1 << pointType.ordinal(), lastUpdateTime, version + 1);
+    }
 
-    public DataPoint getTemperature() {
-        return temperature;
+    /**
+     * Get the data point of a type
+     *
+     * @param pointType type of the data point
+     * @return a new data point, null if none was collected for the type
+     */
+    public DataPoint dataPoint(DataPointType pointType) {
+        if ((present & 1 << pointType.ordinal()) == 0) {
+            return null;
+        }
+        int i = pointType.ordinal() * SLOT_WIDTH;
+        return new DataPoint(Double.longBitsToDouble(slots[i]), (int) (slots[i + 1] >>> 32), (int) slots[i + 1],
+                (int) (slots[i + 2] >>> 32), (int) slots[i + 2]);
     }
 
-    public void setTemperature(DataPoint temperature) {
-        this.temperature = temperature;
+    /**
+     * @return temperature in degrees celsius
+     */
+    public DataPoint getTemperature() {
+        return dataPoint(DataPointType.TEMPERATURE);
     }
 
+    /**
+     * @return wind speed in km/h
+     */
     public DataPoint getWind() {
-        return wind;
+        return dataPoint(DataPointType.WIND);
     }
 
-    public void setWind(DataPoint wind) {
-        this.wind = wind;
+    /**
+     * @return humidity in percent
+     */
+    public DataPoint getHumidity() {
+        return dataPoint(DataPointType.HUMIDTY);
     }
 
-    public DataPoint getHumidity() {
-        return humidity;
+    /**
+     * @return precipitation in cm
+     */
+    public DataPoint getPrecipitation() {
+        return dataPoint(DataPointType.PRECIPITATION);
+    }
+
+    /**
+     * @return pressure in mmHg
+     */
+    public DataPoint getPressure() {
+        return dataPoint(DataPointType.PRESSURE);
     }
 
-    public void setHumidity(DataPoint humidity) {
-        this.humidity = humidity;
+    /**
+     * @return cloud cover percent from 0 - 100 (integer)
+     */
+    public DataPoint getCloudCover() {
+        return dataPoint(DataPointType.CLOUDCOVER);
     }
 
-    public DataPoint getPrecipitation() {
-        return precipitation;
+    public long getLastUpdateTime() {
+        return this.lastUpdateTime;
     }
 
-    public void setPrecipitation(DataPoint precipitation) {
-        this.precipitation = precipitation;
+    /**
+     * Version of this record, not part of the JSON representation
+     *
+     * @return number of updates applied to the airport since it was added
+     */
+    public long version() {
+        return version;
     }
 
-    public DataPoint getPressure() {
-        return pressure;
+    /**
+     * Check whether any data point was ever collected
+     *
+     * @return true if at least one data point is set
+     */
+    public boolean hasData() {
+        return present != 0;
     }
 
-    public void setPressure(DataPoint pressure) {
-        this.pressure = pressure;
+    /**
+     * Get the JSON representation of this record, as the REST endpoints would serialize it
+     *
+     * @return UTF-8 encoded JSON, the returned array must not be modified
+     */
+    public byte[] jsonBytes() {
+        byte[] bytes = json;
+        if (bytes == null) {
+            try {
+                bytes = JSON_MAPPER.writeValueAsBytes(this);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = bytes;
+        }
+        return bytes;
     }
 
-    public DataPoint getCloudCover() {
-        return cloudCover;
+    /**
+     * @return the packed data points, must not be modified
+     */
+    long[] slots() {
+        return slots;
     }
 
-    public void setCloudCover(DataPoint cloudCover) {
-        this.cloudCover = cloudCover;
+    /**
+     * @return bit {@code 1 << ordinal} is set for every point type with a data point
+     */
+    int present() {
+        return present;
     }
 
-    public long getLastUpdateTime() {
-        return this.lastUpdateTime;
+    /**
+     * @return empty slots for a record under construction
+     */
+    static long[] newSlots() {
+        return new long[TYPES * SLOT_WIDTH];
     }
 
-    public void setLastUpdateTime(long lastUpdateTime) {
-        this.lastUpdateTime = lastUpdateTime;
+    /**
+     * Store a data point in the slots of its type
+     *
+     * @param slots     slots of a record under construction
+     * @param pointType type of the data point
+     * @param dataPoint the data point
+     */
+    static void pack(long[] slots, DataPointType pointType, DataPoint dataPoint) {
+        int i = pointType.ordinal() * SLOT_WIDTH;
+        slots[i] = Double.doubleToRawLongBits(dataPoint.getMean());
+        slots[i + 1] = (long) dataPoint.getFirst() << 32 | dataPoint.getSecond() & 0xFFFFFFFFL;
+        slots[i + 2] = (long) dataPoint.getThird() << 32 | dataPoint.getCount() & 0xFFFFFFFFL;
     }
 }
@@ -0,0 +1,114 @@
+package com.crossover.trial.weather.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson reads and writes {@link AtmosphericInformation} field by field, which no longer matches the JSON contract
+ * since data points are stored in packed slots. This adapter maps the packed slots to the same properties the REST
+ * endpoints produce, null data points follow the null handling of the Gson instance.
+ *
+ * @author code test administrator
+ */
+final class AtmosphericInformationAdapter extends TypeAdapter<AtmosphericInformation> {
+
+    /**
+     * JSON property of every point type, in the order of the JSON representation
+     */
+    private static final String[] PROPERTIES = {"temperature", "wind", "humidity", "precipitation", "pressure",
+            "cloudCover"};
+
+    private static final DataPointType[] TYPES = {DataPointType.TEMPERATURE, DataPointType.WIND,
+            DataPointType.HUMIDTY, DataPointType.PRECIPITATION, DataPointType.PRESSURE, DataPointType.CLOUDCOVER};
+
+    @Override
+    public void write(JsonWriter out, AtmosphericInformation ai) throws IOException {
+        if (ai == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (int i = 0; i < TYPES.length; i++) {
+            out.name(PROPERTIES[i]);
+            DataPoint dataPoint = ai.dataPoint(TYPES[i]);
+            if (dataPoint == null) {
+                out.nullValue();
+            } else {
+                out.beginObject();
+                out.name("mean").value(dataPoint.getMean());
+                out.name("first").value(dataPoint.getFirst());
+                out.name("second").value(dataPoint.getSecond());
+                out.name("third").value(dataPoint.getThird());
+                out.name("count").value(dataPoint.getCount());
+                out.endObject();
+            }
+        }
+        out.name("lastUpdateTime").value(ai.getLastUpdateTime());
+        out.endObject();
+    }
+
+    @Override
+    public AtmosphericInformation read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        long[] slots = AtmosphericInformation.newSlots();
+        int present = 0;
+        long lastUpdateTime = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            int property = indexOf(name);
+            if (property >= 0 && in.peek() != JsonToken.NULL) {
+                AtmosphericInformation.pack(slots, TYPES[property], readDataPoint(in));
+                present |= 1 << TYPES[property].ordinal();
+            } else if ("lastUpdateTime".equals(name) && in.peek() != JsonToken.NULL) {
+                lastUpdateTime = in.nextLong();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new AtmosphericInformation(slots, present, lastUpdateTime, 0);
+    }
+
+    private static DataPoint readDataPoint(JsonReader in) throws IOException {
+        double mean = 0;
+        int[] values = new int[4];
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if ("mean".equals(name)) {
+                mean = in.nextDouble();
+            } else if ("first".equals(name)) {
+                values[0] = in.nextInt();
+            } else if ("second".equals(name)) {
+                values[1] = in.nextInt();
+            } else if ("third".equals(name)) {
+                values[2] = in.nextInt();
+            } else if ("count".equals(name)) {
+                values[3] = in.nextInt();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new DataPoint(mean, values[0], values[1], values[2], values[3]);
+    }
+
+    private static int indexOf(String property) {
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (PROPERTIES[i].equals(property)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -48,6 +48,17 @@ public class DataPoint {
         this.setCount(count);
     }
 
+    /**
+     * all fields in declaration order, for {@link DataPointParser}
+     */
+    DataPoint(double mean, int first, int second, int third, int count) {
+        this.mean = mean;
+        this.first = first;
+        this.second = second;
+        this.third = third;
+        this.count = count;
+    }
+
 
     public double getMean() {
         return mean;
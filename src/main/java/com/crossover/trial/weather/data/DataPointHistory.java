@@ -0,0 +1,377 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Arrays;
+
+/**
+ * Recent data points of one type at one airport, kept in a ring of primitive arrays with a fixed capacity, so
+ * recording never allocates. Once the ring is full it is either overwritten from the oldest data point on, or, if
+ * sealed blocks are kept, compressed into an immutable {@link HistoryBlock} and started over. The oldest block is
+ * dropped once the given number of blocks is exceeded. Queries decode only the blocks overlapping their range, and
+ * do so without holding the lock of the history.
+ * <p>
+ * Times never decrease within a history, a data point recorded with an earlier time than its predecessor, by a
+ * concurrent update of the same airport, takes the time of the predecessor.
+ *
+ * @author code test administrator
+ */
+public final class DataPointHistory {
+
+    /**
+     * How the data points of a bucket are combined into a single value
+     */
+    public enum Aggregation {
+        MIN, MAX, MEAN;
+
+        /**
+         * Find an aggregation by its name, ignoring case
+         *
+         * @param name name of the aggregation
+         * @return the aggregation, null if there is none with this name
+         */
+        public static Aggregation resolve(String name) {
+            for (Aggregation aggregation : values()) {
+                if (aggregation.name().equalsIgnoreCase(name)) {
+                    return aggregation;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final HistoryBlock[] NO_BLOCKS = new HistoryBlock[0];
+
+    private final long[] times;
+    private final double[] means;
+    private final int[] firsts;
+    private final int[] seconds;
+    private final int[] thirds;
+    private final int[] counts;
+
+    /**
+     * number of data points ever recorded, the next one is stored at index {@code written % capacity}
+     */
+    private long written;
+
+    /**
+     * number of data points sealed into blocks, the ring holds the ones after them
+     */
+    private long sealed;
+
+    /**
+     * sealed blocks in time order, the oldest at index {@code firstBlock}, empty unless blocks are kept
+     */
+    private final HistoryBlock[] blocks;
+    private int firstBlock;
+    private int blockCount;
+
+    DataPointHistory(int capacity) {
+        this(capacity, 0);
+    }
+
+    DataPointHistory(int capacity, int sealedBlocks) {
+        times = new long[capacity];
+        means = new double[capacity];
+        firsts = new int[capacity];
+        seconds = new int[capacity];
+        thirds = new int[capacity];
+        counts = new int[capacity];
+        blocks = sealedBlocks > 0 ? new HistoryBlock[sealedBlocks] : NO_BLOCKS;
+    }
+
+    /**
+     * @return the most data points kept in the ring
+     */
+    public int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Append a data point. If the ring is full it is sealed into a block first, or its oldest data point is
+     * overwritten if no blocks are kept.
+     *
+     * @param time      time of the data point in milliseconds since UTC epoch
+     * @param dataPoint the data point
+     */
+    public synchronized void record(long time, DataPoint dataPoint) {
+        if (written > 0) {
+            time = Math.max(time, times[index(written - 1)]);
+        }
+        if (blocks.length > 0 && written - sealed == times.length) {
+            seal();
+        }
+        int i = index(written);
+        times[i] = time;
+        means[i] = dataPoint.getMean();
+        firsts[i] = dataPoint.getFirst();
+        seconds[i] = dataPoint.getSecond();
+        thirds[i] = dataPoint.getThird();
+        counts[i] = dataPoint.getCount();
+        written++;
+    }
+
+    /**
+     * compress the full ring into a block, the ring starts at index 0 since it is sealed every capacity data points
+     */
+    private void seal() {
+        HistoryBlock block = HistoryBlock.encode(times, means, firsts, seconds, thirds, counts, times.length);
+        if (blockCount == blocks.length) {
+            blocks[firstBlock] = block;
+            firstBlock = (firstBlock + 1) % blocks.length;
+        } else {
+            blocks[(firstBlock + blockCount++) % blocks.length] = block;
+        }
+        sealed = written;
+    }
+
+    /**
+     * Get the data points of a time range, either as recorded or combined into buckets of equal length. Buckets are
+     * aligned to the UTC epoch, so consecutive queries over a sliding range agree on their buckets, and buckets
+     * without a data point are left out.
+     *
+     * @param from         start of the range in milliseconds since UTC epoch, inclusive
+     * @param to           end of the range in milliseconds since UTC epoch, exclusive
+     * @param bucketMillis length of a bucket, 0 for every data point on its own
+     * @param aggregation  how the data points of a bucket are combined
+     * @return the data points or buckets in time order
+     */
+    public Series query(long from, long to, long bucketMillis, Aggregation aggregation) {
+        HistoryBlock[] overlapping;
+        Series recent;
+        synchronized (this) {
+            overlapping = new HistoryBlock[blockCount];
+            int count = 0;
+            for (int b = 0; b < blockCount; b++) {
+                HistoryBlock block = blocks[(firstBlock + b) % blocks.length];
+                if (block.maxTime >= from && block.minTime < to) {
+                    overlapping[count++] = block;
+                }
+            }
+            overlapping = Arrays.copyOf(overlapping, count);
+            recent = copyRing(from, to);
+        }
+        Series series = new Series(recent.size);
+        for (HistoryBlock block : overlapping) {
+            HistoryBlock.Decoder decoder = block.new Decoder();
+            while (decoder.next() && decoder.time < to) {
+                if (decoder.time >= from) {
+                    series.add(decoder.time, decoder.mean, decoder.first, decoder.second, decoder.third,
+                            decoder.count, bucketMillis, aggregation);
+                }
+            }
+        }
+        for (int i = 0; i < recent.size; i++) {
+            series.add(recent.time[i], recent.value[i], (int) recent.first[i], (int) recent.second[i],
+                    (int) recent.third[i], (int) recent.samples[i], bucketMillis, aggregation);
+        }
+        return series.trim(aggregation);
+    }
+
+    /**
+     * copy the data points of the ring in a time range, as recorded
+     */
+    private Series copyRing(long from, long to) {
+        // times never decrease, so the range starts at the first data point not before from
+        long low = Math.max(sealed, written - times.length);
+        long high = written;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (times[index(middle)] < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        long end = low;
+        while (end < written && times[index(end)] < to) {
+            end++;
+        }
+        Series series = new Series((int) (end - low));
+        for (long k = low; k < end; k++) {
+            int i = index(k);
+            series.append(times[i], means[i], firsts[i], seconds[i], thirds[i], counts[i]);
+        }
+        return series;
+    }
+
+    /**
+     * @return number of data points in sealed blocks
+     */
+    synchronized long sealedDataPoints() {
+        long dataPoints = 0;
+        for (int b = 0; b < blockCount; b++) {
+            dataPoints += blocks[(firstBlock + b) % blocks.length].size;
+        }
+        return dataPoints;
+    }
+
+    /**
+     * @return size of the sealed blocks in bytes
+     */
+    synchronized long sealedBytes() {
+        long bytes = 0;
+        for (int b = 0; b < blockCount; b++) {
+            bytes += blocks[(firstBlock + b) % blocks.length].bytes();
+        }
+        return bytes;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % times.length);
+    }
+
+    /**
+     * Data points or buckets of a history query, as parallel arrays in time order
+     */
+    public static final class Series {
+        private long[] time;
+        private double[] value;
+        private double[] first;
+        private double[] second;
+        private double[] third;
+        private int[] count;
+        private long[] samples;
+        private int size;
+
+        private Series(int capacity) {
+            time = new long[capacity];
+            value = new double[capacity];
+            first = new double[capacity];
+            second = new double[capacity];
+            third = new double[capacity];
+            count = new int[capacity];
+            samples = new long[capacity];
+        }
+
+        /**
+         * @return a series without data points
+         */
+        public static Series empty() {
+            return new Series(0);
+        }
+
+        /**
+         * @return time of every data point, or start of every bucket, in milliseconds since UTC epoch
+         */
+        public long[] time() {
+            return time;
+        }
+
+        /**
+         * @return mean of every data point, or the aggregated means of every bucket
+         */
+        public double[] value() {
+            return value;
+        }
+
+        /**
+         * @return first quartile of every data point, or the aggregated first quartiles of every bucket
+         */
+        public double[] first() {
+            return first;
+        }
+
+        /**
+         * @return median of every data point, or the aggregated medians of every bucket
+         */
+        public double[] second() {
+            return second;
+        }
+
+        /**
+         * @return third quartile of every data point, or the aggregated third quartiles of every bucket
+         */
+        public double[] third() {
+            return third;
+        }
+
+        /**
+         * @return number of data points in every bucket, 1 without buckets
+         */
+        public int[] count() {
+            return count;
+        }
+
+        /**
+         * @return sum of the counts of the data points in every bucket
+         */
+        public long[] samples() {
+            return samples;
+        }
+
+        /**
+         * add a data point on its own, or to the last bucket if it starts at the same time
+         */
+        private void add(long time, double mean, int first, int second, int third, int count, long bucketMillis,
+                         Aggregation aggregation) {
+            if (bucketMillis <= 0) {
+                append(time, mean, first, second, third, count);
+                return;
+            }
+            long bucket = time - Math.floorMod(time, bucketMillis);
+            int last = size - 1;
+            if (size == 0 || this.time[last] != bucket) {
+                append(bucket, mean, first, second, third, count);
+                return;
+            }
+            value[last] = aggregate(value[last], mean, aggregation);
+            this.first[last] = aggregate(this.first[last], first, aggregation);
+            this.second[last] = aggregate(this.second[last], second, aggregation);
+            this.third[last] = aggregate(this.third[last], third, aggregation);
+            this.count[last]++;
+            samples[last] += count;
+        }
+
+        /**
+         * for the mean the sum for now, divided by the count once the bucket is complete
+         */
+        private static double aggregate(double current, double value, Aggregation aggregation) {
+            switch (aggregation) {
+                case MIN:
+                    return Math.min(current, value);
+                case MAX:
+                    return Math.max(current, value);
+                default:
+                    return current + value;
+            }
+        }
+
+        private void append(long time, double mean, int first, int second, int third, int count) {
+            if (size == this.time.length) {
+                int grown = Math.max(16, size * 2);
+                this.time = Arrays.copyOf(this.time, grown);
+                value = Arrays.copyOf(value, grown);
+                this.first = Arrays.copyOf(this.first, grown);
+                this.second = Arrays.copyOf(this.second, grown);
+                this.third = Arrays.copyOf(this.third, grown);
+                this.count = Arrays.copyOf(this.count, grown);
+                samples = Arrays.copyOf(samples, grown);
+            }
+            this.time[size] = time;
+            value[size] = mean;
+            this.first[size] = first;
+            this.second[size] = second;
+            this.third[size] = third;
+            this.count[size] = 1;
+            samples[size++] = count;
+        }
+
+        private Series trim(Aggregation aggregation) {
+            if (aggregation == Aggregation.MEAN) {
+                for (int i = 0; i < size; i++) {
+                    value[i] /= count[i];
+                    first[i] /= count[i];
+                    second[i] /= count[i];
+                    third[i] /= count[i];
+                }
+            }
+            time = Arrays.copyOf(time, size);
+            value = Arrays.copyOf(value, size);
+            first = Arrays.copyOf(first, size);
+            second = Arrays.copyOf(second, size);
+            third = Arrays.copyOf(third, size);
+            count = Arrays.copyOf(count, size);
+            samples = Arrays.copyOf(samples, size);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.crossover.trial.weather.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the JSON representation of a {@link DataPoint}, or of a batch of {@link WeatherReading}s, straight from
+ * the request bytes. Only the five fields of a
+ * data point are read, unknown fields are skipped and null values leave a field at 0, like Gson does. Input that
+ * is not a single well formed JSON object, or a field value that does not fit the field, is rejected.
+ * <p>
+ * A parser keeps its read buffer between calls, so parsing a typical request allocates nothing but the resulting
+ * data point. Parsers are not thread safe, use {@link #get()} for the parser of the current thread.
+ *
+ * @author code test administrator
+ */
+public final class DataPointParser {
+
+    /**
+     * larger request bodies are rejected
+     */
+    private static final int MAX_LENGTH = 1 << 16;
+
+    /**
+     * larger batches are rejected
+     */
+    private static final int MAX_BATCH_LENGTH = 1 << 20;
+
+    private static final int MAX_DEPTH = 32;
+
+    private static final ThreadLocal<DataPointParser> PARSERS = ThreadLocal.withInitial(DataPointParser::new);
+
+    private static final byte[][] FIELD_NAMES = {
+            bytes("mean"), bytes("first"), bytes("second"), bytes("third"), bytes("count")};
+
+    private static final byte[][] READING_FIELD_NAMES = {bytes("iata"), bytes("pointType"), bytes("dataPoint")};
+
+    private static final int IATA = 0;
+    private static final int POINT_TYPE = 1;
+    private static final int DATA_POINT = 2;
+
+    private static final int MEAN = 0;
+    private static final int FIRST = 1;
+    private static final int SECOND = 2;
+    private static final int THIRD = 3;
+    private static final int COUNT = 4;
+
+    /**
+     * powers of ten that are exact doubles
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * thrown to abandon malformed input, shared since it carries no information
+     */
+    private static final MalformedException MALFORMED = new MalformedException();
+
+    private byte[] buffer = new byte[256];
+
+    private byte[] json;
+    private int position;
+    private int end;
+
+    private final double[] values = new double[FIELD_NAMES.length];
+
+    private DataPointParser() {
+    }
+
+    /**
+     * Get the parser of the current thread
+     *
+     * @return a parser only used by the current thread
+     */
+    public static DataPointParser get() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Read a data point from a stream, into the buffer of this parser
+     *
+     * @param in the JSON representation of a data point, read to the end but not closed
+     * @return the data point, null if the input is malformed or too large
+     * @throws IOException if the stream can not be read
+     */
+    public DataPoint parse(InputStream in) throws IOException {
+        int length = read(in, MAX_LENGTH);
+        return length < 0 ? null : parse(buffer, 0, length);
+    }
+
+    /**
+     * Read a data point from UTF-8 encoded JSON
+     *
+     * @param json   buffer holding the JSON representation of a data point
+     * @param offset start of the JSON in the buffer
+     * @param length length of the JSON
+     * @return the data point, null if the input is malformed
+     */
+    public DataPoint parse(byte[] json, int offset, int length) {
+        this.json = json;
+        this.position = offset;
+        this.end = offset + length;
+        try {
+            skipWhitespace();
+            DataPoint dataPoint = readDataPoint();
+            expectEnd();
+            return dataPoint;
+        } catch (MalformedException e) {
+            return null;
+        } finally {
+            this.json = null;
+        }
+    }
+
+    /**
+     * Read a JSON array of readings, objects with an iata, a pointType and a dataPoint property, from a stream. A
+     * reading with a missing or null property is returned with that property null, so that it can be rejected on
+     * its own.
+     *
+     * @param in the JSON array, read to the end but not closed
+     * @return the readings in order, null if the input is malformed or too large
+     * @throws IOException if the stream can not be read
+     */
+    public List<WeatherReading> parseReadings(InputStream in) throws IOException {
+        int length = read(in, MAX_BATCH_LENGTH);
+        if (length < 0) {
+            return null;
+        }
+        this.json = buffer;
+        this.position = 0;
+        this.end = length;
+        try {
+            List<WeatherReading> readings = new ArrayList<>();
+            skipWhitespace();
+            expect('[');
+            skipWhitespace();
+            if (!consume(']')) {
+                do {
+                    skipWhitespace();
+                    readings.add(readReading());
+                    skipWhitespace();
+                } while (consume(','));
+                expect(']');
+            }
+            expectEnd();
+            return readings;
+        } catch (MalformedException e) {
+            return null;
+        } finally {
+            this.json = null;
+            if (buffer.length > MAX_LENGTH) {
+                // do not keep a batch sized buffer for every thread that ever received a batch
+                buffer = new byte[MAX_LENGTH];
+            }
+        }
+    }
+
+    /**
+     * reads a stream into the buffer
+     *
+     * @return the number of bytes read, -1 if the stream is longer than the maximum length
+     */
+    private int read(InputStream in, int maxLength) throws IOException {
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                if (length >= maxLength) {
+                    return -1;
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(length * 2, maxLength));
+            }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                return length;
+            }
+            length += read;
+        }
+    }
+
+    private WeatherReading readReading() {
+        String iata = null;
+        String pointType = null;
+        DataPoint dataPoint = null;
+        expect('{');
+        skipWhitespace();
+        if (!consume('}')) {
+            do {
+                skipWhitespace();
+                int field = readFieldName(READING_FIELD_NAMES);
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                if (field < 0) {
+                    skipValue(0);
+                } else if (peek() == 'n') {
+                    expectLiteral("null");
+                } else if (field == DATA_POINT) {
+                    dataPoint = readDataPoint();
+                } else if (field == IATA) {
+                    iata = readString();
+                } else {
+                    pointType = readString();
+                }
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+        }
+        return new WeatherReading(iata, pointType, dataPoint);
+    }
+
+    private DataPoint readDataPoint() {
+        Arrays.fill(values, 0);
+        expect('{');
+        skipWhitespace();
+        if (!consume('}')) {
+            do {
+                skipWhitespace();
+                int field = readFieldName(FIELD_NAMES);
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                readFieldValue(field);
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+        }
+        return new DataPoint(values[MEAN], (int) values[FIRST], (int) values[SECOND], (int) values[THIRD],
+                (int) values[COUNT]);
+    }
+
+    private void expectEnd() {
+        skipWhitespace();
+        if (position != end) {
+            throw MALFORMED;
+        }
+    }
+
+    /**
+     * reads a JSON string, decoding escape sequences
+     */
+    private String readString() {
+        expect('"');
+        int start = position;
+        if (!skipStringContent()) {
+            return new String(json, start, position - 1 - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder decoded = new StringBuilder();
+        int chunk = start;
+        for (int i = start; i < position - 1; i++) {
+            if (json[i] != '\\') {
+                continue;
+            }
+            decoded.append(new String(json, chunk, i - chunk, StandardCharsets.UTF_8));
+            byte escape = json[++i];
+            switch (escape) {
+                case 'b':
+                    decoded.append('\b');
+                    break;
+                case 'f':
+                    decoded.append('\f');
+                    break;
+                case 'n':
+                    decoded.append('\n');
+                    break;
+                case 'r':
+                    decoded.append('\r');
+                    break;
+                case 't':
+                    decoded.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= position - 1) {
+                        throw MALFORMED;
+                    }
+                    try {
+                        decoded.append((char) Integer.parseInt(new String(json, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                    } catch (NumberFormatException e) {
+                        throw MALFORMED;
+                    }
+                    i += 4;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    decoded.append((char) escape);
+                    break;
+                default:
+                    throw MALFORMED;
+            }
+            chunk = i + 1;
+        }
+        decoded.append(new String(json, chunk, position - 1 - chunk, StandardCharsets.UTF_8));
+        return decoded.toString();
+    }
+
+    /**
+     * @return index of the field in the given names, -1 for any other field
+     */
+    private int readFieldName(byte[][] names) {
+        expect('"');
+        int start = position;
+        boolean escaped = skipStringContent();
+        int length = position - 1 - start;
+        if (escaped) {
+            return -1;
+        }
+        for (int field = 0; field < names.length; field++) {
+            byte[] name = names[field];
+            if (name.length == length && regionMatches(name, start)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private void readFieldValue(int field) {
+        if (field < 0) {
+            skipValue(0);
+            return;
+        }
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return;
+        }
+        // like Gson, numbers may also be given as strings
+        boolean quoted = consume('"');
+        double value = readNumber();
+        if (quoted) {
+            expect('"');
+        }
+        if (field == MEAN ? Double.isInfinite(value) : value != (int) value) {
+            throw MALFORMED;
+        }
+        values[field] = value;
+    }
+
+    /**
+     * reads a JSON number, without allocating unless it has more than 15 significant digits or a large exponent
+     */
+    private double readNumber() {
+        int start = position;
+        boolean negative = consume('-');
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+
+        if (!isDigit(peek())) {
+            throw MALFORMED;
+        }
+        if (!consume('0')) {
+            while (position < end && isDigit(json[position])) {
+                int digit = json[position++] - '0';
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                    digits++;
+                } else {
+                    exponent++;
+                    truncated |= digit != 0;
+                }
+            }
+        }
+        if (consume('.')) {
+            if (position >= end || !isDigit(json[position])) {
+                throw MALFORMED;
+            }
+            while (position < end && isDigit(json[position])) {
+                int digit = json[position++] - '0';
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + digit;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    truncated |= digit != 0;
+                }
+            }
+        }
+        if (position < end && (json[position] == 'e' || json[position] == 'E')) {
+            position++;
+            boolean negativeExponent = consume('-');
+            if (!negativeExponent) {
+                consume('+');
+            }
+            if (position >= end || !isDigit(json[position])) {
+                throw MALFORMED;
+            }
+            int value = 0;
+            while (position < end && isDigit(json[position])) {
+                value = Math.min(value * 10 + json[position++] - '0', 100000);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (!truncated && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // both operands are exact, so the single rounding gives the correctly rounded result
+            value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(new String(json, start, position - start, StandardCharsets.US_ASCII));
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw MALFORMED;
+        }
+        byte c = peek();
+        if (c == '"') {
+            position++;
+            skipStringContent();
+        } else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            position++;
+            skipWhitespace();
+            if (consume(close)) {
+                return;
+            }
+            do {
+                skipWhitespace();
+                if (c == '{') {
+                    expect('"');
+                    skipStringContent();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue(depth + 1);
+                skipWhitespace();
+            } while (consume(','));
+            expect(close);
+        } else if (c == 't') {
+            expectLiteral("true");
+        } else if (c == 'f') {
+            expectLiteral("false");
+        } else if (c == 'n') {
+            expectLiteral("null");
+        } else {
+            readNumber();
+        }
+    }
+
+    /**
+     * skips to just after the closing quote of a string whose opening quote was consumed
+     *
+     * @return true if the string contains an escape sequence
+     */
+    private boolean skipStringContent() {
+        boolean escaped = false;
+        while (position < end) {
+            byte c = json[position++];
+            if (c == '"') {
+                return escaped;
+            } else if (c == '\\') {
+                escaped = true;
+                position++;
+            } else if (c >= 0 && c < ' ') {
+                throw MALFORMED;
+            }
+        }
+        throw MALFORMED;
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte c = json[position];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private byte peek() {
+        if (position >= end) {
+            throw MALFORMED;
+        }
+        return json[position];
+    }
+
+    private boolean consume(char c) {
+        if (position < end && json[position] == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw MALFORMED;
+        }
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            expect(literal.charAt(i));
+        }
+    }
+
+    private boolean regionMatches(byte[] name, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (json[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class MalformedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedException() {
+            super("malformed data point", null, false, false);
+        }
+    }
+}
@@ -1,15 +1,87 @@
 package com.crossover.trial.weather.data;
 
 /**
- * The various types of data points we can collect.
+ * The various types of data points we can collect, with the range of mean values accepted for each.
  *
  * @author code test administrator
  */
 public enum DataPointType {
-    WIND,
-    TEMPERATURE,
-    HUMIDTY,
-    PRESSURE,
-    CLOUDCOVER,
-    PRECIPITATION
+    WIND(0, Double.POSITIVE_INFINITY),
+    TEMPERATURE(-50, 100),
+    HUMIDTY(0, 100),
+    PRESSURE(650, 800),
+    CLOUDCOVER(0, 100),
+    PRECIPITATION(0, 100);
+
+    /**
+     * open addressing table of every type by the case insensitive hash of its name, large enough to keep probes short
+     */
+    private static final DataPointType[] BY_NAME = new DataPointType[16];
+
+    static {
+        for (DataPointType type : values()) {
+            int slot = hash(type.name()) & (BY_NAME.length - 1);
+            while (BY_NAME[slot] != null) {
+                slot = (slot + 1) & (BY_NAME.length - 1);
+            }
+            BY_NAME[slot] = type;
+        }
+    }
+
+    /**
+     * smallest valid mean, inclusive
+     */
+    private final double minMean;
+
+    /**
+     * largest valid mean, exclusive
+     */
+    private final double maxMean;
+
+    DataPointType(double minMean, double maxMean) {
+        this.minMean = minMean;
+        this.maxMean = maxMean;
+    }
+
+    /**
+     * Check whether a mean value is in the valid range of this type
+     *
+     * @param mean the mean of a data point
+     * @return true if the data point should be stored
+     */
+    public boolean accepts(double mean) {
+        return mean >= minMean && mean < maxMean;
+    }
+
+    /**
+     * Find a type by its name, ignoring case, without allocating
+     *
+     * @param name name of the type
+     * @return the type, null if there is no type with this name
+     */
+    public static DataPointType resolve(String name) {
+        if (name == null) {
+            return null;
+        }
+        int slot = hash(name) & (BY_NAME.length - 1);
+        for (DataPointType type = BY_NAME[slot]; type != null; type = BY_NAME[slot]) {
+            if (type.name().length() == name.length() && type.name().regionMatches(true, 0, name, 0, name.length())) {
+                return type;
+            }
+            slot = (slot + 1) & (BY_NAME.length - 1);
+        }
+        return null;
+    }
+
+    /**
+     * folds case the way {@link String#regionMatches(boolean, int, String, int, int)} compares, so names that match
+     * ignoring case have the same hash
+     */
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return h ^ (h >>> 7) ^ (h >>> 14);
+    }
 }
@@ -0,0 +1,101 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Arrays;
+
+/**
+ * Counts the airports whose latest reading is younger than a time window, without scanning them. Every airport with
+ * data sits in the time bucket of its last update, buckets are subtracted from the live count as they fall out of
+ * the window. Reading the count is amortized O(1).
+ * <p>
+ * An airport leaves the count with the whole bucket, so it may be counted up to one bucket width longer than the
+ * window.
+ *
+ * @author code test administrator
+ */
+public class FreshDataCounter {
+
+    private final long bucketMillis;
+
+    private final long windowMillis;
+
+    /**
+     * airports per bucket, bucket {@code b} covers {@code [b * bucketMillis, (b + 1) * bucketMillis)} and lives at
+     * {@code b % counts.length}
+     */
+    private final int[] counts;
+
+    /**
+     * every bucket below this one has already been subtracted from {@link #live}
+     */
+    private long firstLiveBucket;
+
+    private int live;
+
+    /**
+     * @param windowMillis readings older than this are not counted
+     * @param bucketMillis granularity of the expiry
+     */
+    public FreshDataCounter(long windowMillis, long bucketMillis) {
+        this.windowMillis = windowMillis;
+        this.bucketMillis = bucketMillis;
+        this.counts = new int[(int) (windowMillis / bucketMillis) + 1];
+    }
+
+    /**
+     * Move an airport from the bucket of its previous update to the bucket of its latest one
+     *
+     * @param previousUpdateTime time of the previous update, 0 if the airport had no data
+     * @param lastUpdateTime     time of the latest update
+     */
+    public synchronized void update(long previousUpdateTime, long lastUpdateTime) {
+        expire(lastUpdateTime);
+        remove(previousUpdateTime);
+        long bucket = lastUpdateTime / bucketMillis;
+        if (lastUpdateTime > 0 && bucket >= firstLiveBucket) {
+            counts[(int) (bucket % counts.length)]++;
+            live++;
+        }
+    }
+
+    /**
+     * Take an airport out of the count, when it is removed
+     *
+     * @param lastUpdateTime time of its latest update, 0 if the airport had no data
+     */
+    public synchronized void remove(long lastUpdateTime) {
+        long bucket = lastUpdateTime / bucketMillis;
+        if (lastUpdateTime > 0 && bucket >= firstLiveBucket) {
+            counts[(int) (bucket % counts.length)]--;
+            live--;
+        }
+    }
+
+    /**
+     * Get the number of airports updated within the window
+     *
+     * @param now current time in milliseconds since UTC epoch
+     * @return number of airports with a recent reading
+     */
+    public synchronized int count(long now) {
+        expire(now);
+        return live;
+    }
+
+    /**
+     * subtracts every bucket whose readings are all at least one window old
+     */
+    private void expire(long now) {
+        long firstFreshBucket = (now - windowMillis + 1) / bucketMillis;
+        if (firstFreshBucket - firstLiveBucket >= counts.length) {
+            // idle for more than a window, everything expired
+            Arrays.fill(counts, 0);
+            live = 0;
+            firstLiveBucket = firstFreshBucket;
+        }
+        for (; firstLiveBucket < firstFreshBucket; firstLiveBucket++) {
+            int i = (int) (firstLiveBucket % counts.length);
+            live -= counts[i];
+            counts[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts occurrences of int keys in fixed memory. The most frequent keys are counted exactly in a table of at most
+ * {@code topN} entries, every other key is counted in a Count-Min sketch which never underestimates. A key is
+ * admitted to the table, evicting the smallest entry, once its estimate exceeds every counted entry; from then on
+ * its count is the estimate at admission plus the exact number of occurrences since, so the sketch error is frozen
+ * at admission and does not grow any more.
+ * <p>
+ * Counting a key in the table is a striped increment, counting any other key updates one slot per sketch row.
+ *
+ * @author code test administrator
+ */
+public class HeavyHitterTracker {
+
+    private static final int DEPTH = 4;
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int topN;
+
+    private final int widthMask;
+
+    /**
+     * Count-Min sketch, row {@code r} occupies {@code [r * width, (r + 1) * width)}
+     */
+    private final AtomicLongArray sketch;
+
+    private final Map<Integer, Counter> top;
+
+    /**
+     * smallest count in the table when it was last scanned, counts only grow so the actual minimum is never lower
+     */
+    private volatile long admissionThreshold;
+
+    /**
+     * @param topN  number of keys counted exactly
+     * @param width slots per sketch row, rounded up to a power of two
+     */
+    public HeavyHitterTracker(int topN, int width) {
+        this.topN = topN;
+        int slots = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.widthMask = slots - 1;
+        this.sketch = new AtomicLongArray(DEPTH * slots);
+        this.top = new ConcurrentHashMap<>(topN * 2);
+    }
+
+    /**
+     * Count one occurrence of a key
+     *
+     * @param key the key
+     */
+    public void record(int key) {
+        Counter counter = top.get(key);
+        if (counter != null) {
+            counter.hits.increment();
+            if (top.get(key) != counter) {
+                // evicted meanwhile, the eviction may have summed the hits before this one
+                transfer(key, counter);
+            }
+            return;
+        }
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(slot(row, key)));
+        }
+        if (top.size() < topN || estimate > admissionThreshold) {
+            admit(key, estimate);
+        }
+    }
+
+    /**
+     * Get the count of a key
+     *
+     * @param key the key
+     * @return an estimate that is never below the actual count, exact for the hits since the key entered the table
+     */
+    public long estimate(int key) {
+        Counter counter = top.get(key);
+        if (counter != null) {
+            return counter.count();
+        }
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.get(slot(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Check whether a key is currently counted exactly
+     *
+     * @param key the key
+     * @return true if the key has an entry in the table
+     */
+    public boolean isTracked(int key) {
+        return top.containsKey(key);
+    }
+
+    private synchronized void admit(int key, long estimate) {
+        if (top.containsKey(key)) {
+            return;
+        }
+        if (top.size() >= topN) {
+            // another caller may have raised the threshold since this one was checked
+            if (estimate <= admissionThreshold) {
+                return;
+            }
+            int smallestKey = 0;
+            long smallest = Long.MAX_VALUE;
+            long secondSmallest = Long.MAX_VALUE;
+            for (Map.Entry<Integer, Counter> entry : top.entrySet()) {
+                long count = entry.getValue().count();
+                if (count < smallest) {
+                    secondSmallest = smallest;
+                    smallest = count;
+                    smallestKey = entry.getKey();
+                } else if (count < secondSmallest) {
+                    secondSmallest = count;
+                }
+            }
+            if (estimate <= smallest) {
+                admissionThreshold = smallest;
+                return;
+            }
+            admissionThreshold = Math.min(secondSmallest, estimate);
+            transfer(smallestKey, top.remove(smallestKey));
+        }
+        top.put(key, new Counter(estimate));
+    }
+
+    /**
+     * Hand the occurrences counted by an evicted entry back to the sketch, which already holds its count at
+     * admission. Called on eviction and again by every increment that finds its entry evicted, so each occurrence
+     * is handed over exactly once.
+     */
+    private synchronized void transfer(int key, Counter evicted) {
+        long hits = evicted.hits.sum();
+        long delta = hits - evicted.transferred;
+        evicted.transferred = hits;
+        if (delta > 0) {
+            for (int row = 0; row < DEPTH; row++) {
+                sketch.addAndGet(slot(row, key), delta);
+            }
+        }
+    }
+
+    private int slot(int row, int key) {
+        int h = key * SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    /**
+     * exact count of a key in the table
+     */
+    private static final class Counter {
+        final long base;
+        final LongAdder hits = new LongAdder();
+
+        /**
+         * hits already handed to the sketch after eviction, guarded by the tracker
+         */
+        long transferred;
+
+        Counter(long base) {
+            this.base = base;
+        }
+
+        long count() {
+            return base + hits.sum();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed run of data points sealed from a full {@link DataPointHistory} ring, encoded the way
+ * Facebook's Gorilla time series database encodes its blocks. Times are stored as the delta of their deltas, which
+ * is 0 for readings at a steady rate and costs a single bit. Means are stored as the XOR with the previous mean,
+ * which only needs the bits that changed. Quartiles and counts are stored as the delta to the previous data point,
+ * with the same variable length encoding as the times.
+ * <p>
+ * Nothing is decoded until a query walks the block with a {@link Decoder}.
+ *
+ * @author code test administrator
+ */
+final class HistoryBlock {
+
+    /**
+     * number of data points in the block
+     */
+    final int size;
+
+    /**
+     * time of the first and the last data point, so queries skip blocks outside their range without decoding
+     */
+    final long minTime;
+    final long maxTime;
+
+    /**
+     * the encoded data points, most significant bit first
+     */
+    private final long[] bits;
+
+    private HistoryBlock(int size, long minTime, long maxTime, long[] bits) {
+        this.size = size;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.bits = bits;
+    }
+
+    /**
+     * Encode the first data points of the given columns, times must not decrease
+     *
+     * @return the sealed block
+     */
+    static HistoryBlock encode(long[] times, double[] means, int[] firsts, int[] seconds, int[] thirds, int[] counts,
+                               int size) {
+        BitWriter out = new BitWriter(size);
+        long previousDelta = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                out.write(times[0], 64);
+                out.write(Double.doubleToRawLongBits(means[0]), 64);
+                out.write(firsts[0], 32);
+                out.write(seconds[0], 32);
+                out.write(thirds[0], 32);
+                out.write(counts[0], 32);
+                continue;
+            }
+            long delta = times[i] - times[i - 1];
+            writeVarying(out, delta - previousDelta);
+            previousDelta = delta;
+
+            long xor = Double.doubleToRawLongBits(means[i]) ^ Double.doubleToRawLongBits(means[i - 1]);
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int xorLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int xorTrailing = Long.numberOfTrailingZeros(xor);
+                if (leading >= 0 && xorLeading >= leading && xorTrailing >= trailing) {
+                    // the changed bits fit the window of the previous mean
+                    out.write(0b10, 2);
+                    out.write(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    leading = xorLeading;
+                    trailing = xorTrailing;
+                    int meaningful = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(meaningful - 1, 6);
+                    out.write(xor >>> trailing, meaningful);
+                }
+            }
+            writeVarying(out, (long) firsts[i] - firsts[i - 1]);
+            writeVarying(out, (long) seconds[i] - seconds[i - 1]);
+            writeVarying(out, (long) thirds[i] - thirds[i - 1]);
+            writeVarying(out, (long) counts[i] - counts[i - 1]);
+        }
+        return new HistoryBlock(size, times[0], times[size - 1], out.toArray());
+    }
+
+    /**
+     * @return size of the encoded data points in bytes
+     */
+    int bytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    /**
+     * Write a signed value with a prefix telling its width: 0 for a zero, then 7, 9, 12 and 32 bits for small
+     * values and 64 bits for anything else
+     */
+    private static void writeVarying(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else if (value >= -63 && value <= 64) {
+            out.write(0b10, 2);
+            out.write(value + 63, 7);
+        } else if (value >= -255 && value <= 256) {
+            out.write(0b110, 3);
+            out.write(value + 255, 9);
+        } else if (value >= -2047 && value <= 2048) {
+            out.write(0b1110, 4);
+            out.write(value + 2047, 12);
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            out.write(0b11110, 5);
+            out.write(value, 32);
+        } else {
+            out.write(0b11111, 5);
+            out.write(value, 64);
+        }
+    }
+
+    private static long readVarying(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        }
+        if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        }
+        if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        }
+        if (in.read(1) == 0) {
+            return (int) in.read(32);
+        }
+        return in.read(64);
+    }
+
+    /**
+     * Walks the data points of a block in time order, the current one is held in its fields
+     */
+    final class Decoder {
+        private final BitReader in = new BitReader(bits);
+        private int decoded;
+        private long delta;
+        private int leading;
+        private int trailing;
+
+        long time;
+        double mean;
+        int first;
+        int second;
+        int third;
+        int count;
+
+        /**
+         * Decode the next data point
+         *
+         * @return false if all data points of the block were decoded
+         */
+        boolean next() {
+            if (decoded == size) {
+                return false;
+            }
+            if (decoded++ == 0) {
+                time = in.read(64);
+                mean = Double.longBitsToDouble(in.read(64));
+                first = (int) in.read(32);
+                second = (int) in.read(32);
+                third = (int) in.read(32);
+                count = (int) in.read(32);
+                return true;
+            }
+            delta += readVarying(in);
+            time += delta;
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    trailing = 64 - leading - ((int) in.read(6) + 1);
+                }
+                long xor = in.read(64 - leading - trailing) << trailing;
+                mean = Double.longBitsToDouble(Double.doubleToRawLongBits(mean) ^ xor);
+            }
+            first += (int) readVarying(in);
+            second += (int) readVarying(in);
+            third += (int) readVarying(in);
+            count += (int) readVarying(in);
+            return true;
+        }
+    }
+
+    /**
+     * appends bits to a growing array of words
+     */
+    private static final class BitWriter {
+        private long[] words;
+        private int position;
+
+        BitWriter(int size) {
+            // data points rarely take more than two words, so the array seldom has to grow
+            words = new long[Math.max(4, size * 2)];
+        }
+
+        /**
+         * write the given number of low bits of a value, from 1 to 64
+         */
+        void write(long value, int count) {
+            if (count < 64) {
+                value &= (1L << count) - 1;
+            }
+            if (((position + count + 63) >>> 6) > words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            if (count <= free) {
+                words[word] |= value << (free - count);
+            } else {
+                words[word] |= value >>> (count - free);
+                words[word + 1] |= value << (64 - (count - free));
+            }
+            position += count;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    /**
+     * reads bits in the order a {@link BitWriter} wrote them
+     */
+    private static final class BitReader {
+        private final long[] words;
+        private int position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        /**
+         * read the given number of bits, from 1 to 64, as the low bits of the result
+         */
+        long read(int count) {
+            int word = position >>> 6;
+            int offset = position & 63;
+            int free = 64 - offset;
+            long value = (words[word] << offset) >>> (64 - count);
+            if (count > free) {
+                value |= words[word + 1] >>> (64 - (count - free));
+            }
+            position += count;
+            return value;
+        }
+    }
+}
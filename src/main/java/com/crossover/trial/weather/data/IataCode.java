@@ -0,0 +1,95 @@
+package com.crossover.trial.weather.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs three letter IATA codes into an int, seven bits per ASCII character, so that airports can be looked up
+ * without hashing a String.
+ *
+ * @author code test administrator
+ */
+public final class IataCode {
+
+    /**
+     * returned for anything which is not a three character ASCII code
+     */
+    public static final int INVALID = -1;
+
+    private static final int LENGTH = 3;
+
+    private static final int BITS_PER_CHAR = 7;
+
+    private static final int CHAR_MASK = (1 << BITS_PER_CHAR) - 1;
+
+    private IataCode() {
+    }
+
+    /**
+     * Pack an IATA code into an int
+     *
+     * @param iataCode the three letter code
+     * @return a positive key, never 0, or {@link #INVALID}
+     */
+    public static int pack(CharSequence iataCode) {
+        if (iataCode == null || iataCode.length() != LENGTH) {
+            return INVALID;
+        }
+        int key = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = iataCode.charAt(i);
+            if (c == 0 || c > CHAR_MASK) {
+                return INVALID;
+            }
+            key = key << BITS_PER_CHAR | c;
+        }
+        return key;
+    }
+
+    /**
+     * Pack an IATA code from ASCII bytes without decoding them
+     *
+     * @param bytes buffer holding the code
+     * @param start position of the first byte
+     * @param end   position after the last byte
+     * @return a positive key, never 0, or {@link #INVALID}
+     */
+    static int pack(ByteBuffer bytes, int start, int end) {
+        if (end - start != LENGTH) {
+            return INVALID;
+        }
+        int key = 0;
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b <= 0) {
+                return INVALID;
+            }
+            key = key << BITS_PER_CHAR | b;
+        }
+        return key;
+    }
+
+    /**
+     * Reverse of {@link #pack(CharSequence)}
+     *
+     * @param key packed code
+     * @return the three letter code
+     */
+    public static String unpack(int key) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = (char) (key & CHAR_MASK);
+            key >>>= BITS_PER_CHAR;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Check whether a code can be used as an airport key
+     *
+     * @param iataCode the three letter code
+     * @return true for three character ASCII codes
+     */
+    public static boolean isValid(CharSequence iataCode) {
+        return pack(iataCode) != INVALID;
+    }
+}
@@ -0,0 +1,139 @@
+package com.crossover.trial.weather.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open addressing map from packed IATA codes to airport ordinals. Each slot is a single long holding the key in the
+ * upper and the ordinal in the lower half, so there are no per entry objects and a reader can never see a key without
+ * its ordinal.
+ * <p>
+ * Writers must be serialized by the caller, readers never block. Removed keys keep their slot with an ordinal of -1
+ * until the next resize, which keeps linear probing chains intact.
+ *
+ * @author code test administrator
+ */
+final class IataOrdinalMap {
+
+    /**
+     * returned for a key which is not mapped
+     */
+    static final int ABSENT = -1;
+
+    private static final long EMPTY = 0L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_CAPACITY);
+
+    /**
+     * number of slots holding a key, removed or not. Guarded by the caller
+     */
+    private int used;
+
+    /**
+     * Find the ordinal mapped to a key
+     *
+     * @param key packed IATA code
+     * @return the ordinal or {@link #ABSENT}
+     */
+    int get(int key) {
+        AtomicLongArray table = this.table;
+        int mask = table.length() - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long entry = table.get(i);
+            if (entry == EMPTY) {
+                return ABSENT;
+            }
+            if (keyOf(entry) == key) {
+                return ordinalOf(entry);
+            }
+        }
+    }
+
+    /**
+     * Map a key to an ordinal, replacing any previous mapping
+     *
+     * @param key     packed IATA code
+     * @param ordinal a non negative ordinal
+     */
+    void put(int key, int ordinal) {
+        if ((used + 1) * 2 > table.length()) {
+            resize();
+        }
+        AtomicLongArray table = this.table;
+        int slot = slotOf(table, key);
+        if (table.get(slot) == EMPTY) {
+            used++;
+        }
+        table.set(slot, entry(key, ordinal));
+    }
+
+    /**
+     * Remove the mapping of a key
+     *
+     * @param key packed IATA code
+     * @return the ordinal the key was mapped to or {@link #ABSENT}
+     */
+    int remove(int key) {
+        AtomicLongArray table = this.table;
+        int slot = slotOf(table, key);
+        long entry = table.get(slot);
+        if (entry == EMPTY || ordinalOf(entry) == ABSENT) {
+            return ABSENT;
+        }
+        table.set(slot, entry(key, ABSENT));
+        return ordinalOf(entry);
+    }
+
+    /**
+     * the slot holding the key, or the empty slot ending its probing chain
+     */
+    private static int slotOf(AtomicLongArray table, int key) {
+        int mask = table.length() - 1;
+        int i = hash(key) & mask;
+        while (table.get(i) != EMPTY && keyOf(table.get(i)) != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * rebuilds the table without removed keys, doubling it if it is still at least a quarter full
+     */
+    private void resize() {
+        AtomicLongArray old = table;
+        int live = 0;
+        for (int i = 0; i < old.length(); i++) {
+            if (old.get(i) != EMPTY && ordinalOf(old.get(i)) != ABSENT) {
+                live++;
+            }
+        }
+        int capacity = live * 4 >= old.length() ? old.length() * 2 : old.length();
+        AtomicLongArray resized = new AtomicLongArray(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            long entry = old.get(i);
+            if (entry != EMPTY && ordinalOf(entry) != ABSENT) {
+                resized.set(slotOf(resized, keyOf(entry)), entry);
+            }
+        }
+        used = live;
+        table = resized;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long entry(int key, int ordinal) {
+        return ((long) key << 32) | (ordinal & 0xFFFFFFFFL);
+    }
+
+    private static int keyOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int ordinalOf(long entry) {
+        return (int) entry;
+    }
+}
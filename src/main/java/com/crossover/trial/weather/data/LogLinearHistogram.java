@@ -0,0 +1,81 @@
+package com.crossover.trial.weather.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size histogram of non negative values with log-linear buckets, in the style of HdrHistogram. Values below
+ * {@code 2^SUB_BUCKET_BITS} get a bucket each, every power of two above is split into {@code 2^SUB_BUCKET_BITS}
+ * linear sub buckets, so the bucket width never exceeds 1/8 of the value. Values above the highest tracked
+ * magnitude are counted in the last bucket.
+ * <p>
+ * Memory is constant no matter what values are recorded, and recording is lock free with a striped counter per
+ * bucket.
+ *
+ * @author code test administrator
+ */
+public class LogLinearHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final LongAdder[] buckets;
+
+    private final long maxValue;
+
+    /**
+     * @param magnitudeBits values up to {@code 2^magnitudeBits - 1} get their own bucket
+     */
+    public LogLinearHistogram(int magnitudeBits) {
+        this.maxValue = (1L << magnitudeBits) - 1;
+        this.buckets = new LongAdder[bucketIndex(maxValue) + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count one occurrence of a value
+     *
+     * @param value the value, negative values and NaN are counted as 0
+     */
+    public void record(double value) {
+        long v = value > 0 ? (long) Math.min(value, maxValue) : 0;
+        buckets[bucketIndex(v)].increment();
+    }
+
+    /**
+     * Get the count of every bucket
+     *
+     * @return a snapshot of the bucket counts, indexed by bucket
+     */
+    public long[] getCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Get the smallest value counted in a bucket
+     *
+     * @param bucket bucket index
+     * @return the inclusive lower bound of the bucket
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+}
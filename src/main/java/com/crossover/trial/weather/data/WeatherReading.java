@@ -0,0 +1,39 @@
+package com.crossover.trial.weather.data;
+
+/**
+ * A single reading sent by a collector: a data point of some type for an airport
+ *
+ * @author code test administrator
+ */
+public class WeatherReading {
+
+    /**
+     * the 3 letter airport code
+     */
+    private final String iata;
+
+    /**
+     * the point type, {@link DataPointType} for a complete list
+     */
+    private final String pointType;
+
+    private final DataPoint dataPoint;
+
+    public WeatherReading(String iata, String pointType, DataPoint dataPoint) {
+        this.iata = iata;
+        this.pointType = pointType;
+        this.dataPoint = dataPoint;
+    }
+
+    public String getIata() {
+        return iata;
+    }
+
+    public String getPointType() {
+        return pointType;
+    }
+
+    public DataPoint getDataPoint() {
+        return dataPoint;
+    }
+}
@@ -3,12 +3,24 @@ package com.crossover.trial.weather.enpoint;
 import com.crossover.trial.weather.data.*;
 import com.crossover.trial.weather.exception.WeatherUpdateException;
 import com.crossover.trial.weather.service.WeatherCollectorService;
-import com.google.gson.Gson;
+import com.crossover.trial.weather.service.WeatherIngestionService;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,7 +49,7 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 
     /**
      * Update the airports atmospheric information for a particular pointType with
-     * json formatted data point information.
+     * json formatted data point information. The update is applied before this returns, also in async ingestion mode.
      *
      * @param iataCode      the 3 letter airport code
      * @param pointType     the point type, {@link DataPointType} for a complete list
@@ -45,16 +57,50 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
      * @return HTTP Response code
      */
     @Override
+    public Response updateWeather(String iataCode, String pointType, String datapointJson) {
+        Response rejected = checkUpdate(iataCode, pointType, datapointJson != null);
+        if (rejected != null) {
+            return rejected;
+        }
+        byte[] json = datapointJson.getBytes(StandardCharsets.UTF_8);
+        return applyUpdate(iataCode, pointType, DataPointParser.get().parse(json, 0, json.length), true);
+    }
+
+    /**
+     * Update the airports atmospheric information for a particular pointType, parsing the data point straight from
+     * the request body without decoding it to a string. In async ingestion mode the update is only queued and 202 is
+     * returned, unless the caller asks to wait for it.
+     *
+     * @param iataCode      the 3 letter airport code
+     * @param pointType     the point type, {@link DataPointType} for a complete list
+     * @param sync          in async ingestion mode, wait until the update is applied
+     * @param datapointJson a json dict containing mean, first, second, thrid and count keys
+     * @return HTTP Response code, 503 if the update was dropped since too many are queued
+     * @throws IOException if the request body can not be read
+     */
     @POST
     @Path("/weather/{iata}/{pointType}")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response updateWeather(@PathParam("iata") String iataCode,
                                   @PathParam("pointType") String pointType,
-                                  String datapointJson) {
+                                  @QueryParam("sync") boolean sync,
+                                  InputStream datapointJson) throws IOException {
+        Response rejected = checkUpdate(iataCode, pointType, datapointJson != null);
+        if (rejected != null) {
+            return rejected;
+        }
+        return applyUpdate(iataCode, pointType, DataPointParser.get().parse(datapointJson), sync);
+    }
 
-        if (iataCode == null || iataCode.length() != 3 || pointType == null || datapointJson == null) {
+    /**
+     * Validate an update before its data point is parsed
+     *
+     * @return the error response, null if the update can go ahead
+     */
+    private Response checkUpdate(String iataCode, String pointType, boolean hasDataPoint) {
+        if (iataCode == null || iataCode.length() != 3 || pointType == null || !hasDataPoint) {
             LOGGER.log(Level.SEVERE, "Bad parameters iataCode [" + iataCode + ", ] pointType [" + pointType +
-                    ",] datapoint [" + datapointJson + "]");
+                    ",] datapoint present [" + hasDataPoint + "]");
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
         //Checking whether atmospheric information exists or not to avoid further processing
@@ -64,18 +110,31 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
             return Response.status(Response.Status.NOT_FOUND).entity("Atmospheric Information not found for the " +
                     "airport iataCode [ " + iataCode + "], Please add the airport information.").build();
         }
-        Gson gson = new Gson();
-        DataPoint dataPoint = gson.fromJson(datapointJson, DataPoint.class);
+        return null;
+    }
+
+    private Response applyUpdate(String iataCode, String pointType, DataPoint dataPoint, boolean sync) {
         if (dataPoint == null) {
             LOGGER.log(Level.SEVERE, "Bad parameters for iataCode [ " + iataCode + "], " +
-                    "pointType [ " + pointType + "], datapoint [" + datapointJson + "]");
+                    "pointType [ " + pointType + "], malformed datapoint");
             return Response.status(Response.Status.BAD_REQUEST).entity("Specify the data point correctly").build();
         }
+        Response.Status status;
         try {
-            AtmosphericInformation updatedInfo = WeatherCollectorService.getInstance().
-                    updateAtmosphericValues(atmInfo, pointType, dataPoint);
-            boolean updated = AirportDataHolder.getInstance().updateAtmosphericInformation(iataCode, updatedInfo);
-            if (!updated) {
+            if (WeatherIngestionService.isAsync()) {
+                CompletableFuture<Boolean> pending = submit(iataCode, pointType, dataPoint);
+                if (pending == null) {
+                    LOGGER.log(Level.SEVERE, "Update of airport iataCode [ " + iataCode + "] dropped, queue is full");
+                    return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Too many pending updates, " +
+                            "please retry later").build();
+                }
+                status = sync ? awaitUpdate(pending, deadline()) : Response.Status.ACCEPTED;
+            } else {
+                status = WeatherCollectorService.getInstance().
+                        updateAtmosphericInformation(iataCode, pointType, dataPoint) ?
+                        Response.Status.OK : Response.Status.NOT_FOUND;
+            }
+            if (status == Response.Status.NOT_FOUND) {
                 LOGGER.log(Level.SEVERE, "Atmospheric Information not found for the airport iataCode [ " + iataCode + "]");
                 return Response.status(Response.Status.NOT_FOUND).entity("Atmospheric Information not found for the " +
                         "airport iataCode [ " + iataCode + "], Please add the airport information.").build();
@@ -88,7 +147,132 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
                     "TEMPERATURE, HUMIDTY, PRESSURE,CLOUDCOVER, PRECIPITATION, Please specify the correct point type. ").build();
 
         }
-        return Response.status(Response.Status.OK).build();
+        return Response.status(status).build();
+    }
+
+    /**
+     * Update the atmospheric information of many airports with a single request. Every reading is validated and
+     * applied on its own, so one bad reading does not reject the others. In async ingestion mode accepted readings
+     * get 202 and dropped ones 503, unless the caller asks to wait for them.
+     *
+     * @param sync         in async ingestion mode, wait until the readings are applied
+     * @param readingsJson a json array of dicts with iata, pointType and dataPoint keys
+     * @return HTTP Response code, with a json array holding the status code of every reading in request order
+     * @throws IOException if the request body can not be read
+     */
+    @POST
+    @Path("/weather")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateWeather(@QueryParam("sync") boolean sync, InputStream readingsJson) throws IOException {
+        List<WeatherReading> readings = DataPointParser.get().parseReadings(readingsJson);
+        if (readings == null) {
+            LOGGER.log(Level.SEVERE, "Malformed batch of readings");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Specify the readings correctly").build();
+        }
+        int[] statuses = new int[readings.size()];
+        List<CompletableFuture<Boolean>> pending = WeatherIngestionService.isAsync() ?
+                new ArrayList<>(statuses.length) : Collections.emptyList();
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = applyReading(readings.get(i), pending).getStatusCode();
+        }
+        // every reading is queued before waiting, so the writers apply them in as few drain cycles as possible
+        if (sync && !pending.isEmpty()) {
+            long deadline = deadline();
+            for (int i = 0, next = 0; i < statuses.length; i++) {
+                if (statuses[i] == Response.Status.ACCEPTED.getStatusCode()) {
+                    statuses[i] = awaitUpdate(pending.get(next++), deadline).getStatusCode();
+                }
+            }
+        }
+        int rejected = 0;
+        for (int status : statuses) {
+            if (status >= Response.Status.BAD_REQUEST.getStatusCode()) {
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            LOGGER.log(Level.SEVERE, rejected + " of " + statuses.length + " readings rejected");
+        }
+        return Response.status(Response.Status.OK).entity(statuses).build();
+    }
+
+    /**
+     * @param pending collects the updates queued in async ingestion mode, in request order
+     */
+    private Response.Status applyReading(WeatherReading reading, List<CompletableFuture<Boolean>> pending) {
+        if (reading.getIata() == null || reading.getIata().length() != 3 || reading.getPointType() == null
+                || reading.getDataPoint() == null) {
+            return Response.Status.BAD_REQUEST;
+        }
+        try {
+            if (WeatherIngestionService.isAsync()) {
+                if (AirportDataHolder.getInstance().findOrdinal(reading.getIata()) < 0) {
+                    return Response.Status.NOT_FOUND;
+                }
+                CompletableFuture<Boolean> update = submit(reading.getIata(), reading.getPointType(),
+                        reading.getDataPoint());
+                if (update == null) {
+                    return Response.Status.SERVICE_UNAVAILABLE;
+                }
+                pending.add(update);
+                return Response.Status.ACCEPTED;
+            }
+            boolean updated = WeatherCollectorService.getInstance().updateAtmosphericInformation(reading.getIata(),
+                    reading.getPointType(), reading.getDataPoint());
+            return updated ? Response.Status.OK : Response.Status.NOT_FOUND;
+        } catch (WeatherUpdateException e) {
+            return Response.Status.BAD_REQUEST;
+        }
+    }
+
+    private static CompletableFuture<Boolean> submit(String iataCode, String pointType, DataPoint dataPoint)
+            throws WeatherUpdateException {
+        DataPointType type = WeatherCollectorService.getInstance().findDataPointType(pointType);
+        return WeatherIngestionService.getInstance().submit(iataCode, type, dataPoint);
+    }
+
+    /**
+     * @return the time in {@link System#nanoTime()} until which synchronous acknowledgements are awaited
+     */
+    private static long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WeatherIngestionService.INGEST_ACK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Wait for a queued update to be applied
+     *
+     * @return 200 once applied, 404 if the airport was removed in the meantime, 202 if it is still queued at the
+     * deadline
+     */
+    private static Response.Status awaitUpdate(CompletableFuture<Boolean> pending, long deadline) {
+        try {
+            return pending.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ?
+                    Response.Status.OK : Response.Status.NOT_FOUND;
+        } catch (TimeoutException e) {
+            return Response.Status.ACCEPTED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.Status.ACCEPTED;
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Queued update failed", e.getCause());
+            return Response.Status.INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    /**
+     * Retrieve statistics of the collector, such as the queue depth and lag of async ingestion
+     *
+     * @return HTTP Response with the statistics as JSON
+     */
+    @Override
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats() {
+        Object stats = WeatherIngestionService.isAsync() ? WeatherIngestionService.getInstance().getStats() :
+                Collections.singletonMap("mode", WeatherIngestionService.INGEST_MODE);
+        return Response.status(Response.Status.OK).entity(Collections.singletonMap("ingest", stats)).build();
     }
 
     /**
@@ -105,6 +289,27 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
         return Response.status(Response.Status.OK).entity(airports).build();
     }
 
+    /**
+     * Add a whole catalog of airports, parsed as the request body streams in. Known airports are left untouched.
+     *
+     * @param contentType {@code application/x-ndjson} for one json dict per line with iata, latitude and longitude
+     *                    keys, the airports.dat CSV format otherwise
+     * @param catalog     the catalog, UTF-8 encoded
+     * @return HTTP Response code, with a json dict counting added, conflicting and invalid lines
+     * @throws IOException if the request body can not be read
+     */
+    @POST
+    @Path("/airports")
+    @Consumes({"text/csv", "application/x-ndjson", MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response addAirports(@HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                InputStream catalog) throws IOException {
+        AirportCatalogReader.Format format = contentType != null && contentType.contains("ndjson") ?
+                AirportCatalogReader.Format.NDJSON : AirportCatalogReader.Format.CSV;
+        Map<String, Object> summary = WeatherCollectorService.getInstance().importAirports(catalog, format);
+        return Response.status(Response.Status.OK).entity(summary).build();
+    }
+
     /**
      * Retrieve airport data, including latitude and longitude for a particular airport
      *
@@ -145,7 +350,7 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
     public Response addAirport(@PathParam("iata") String iata,
                                @PathParam("lat") String latString,
                                @PathParam("long") String longString) {
-        if (iata == null || iata.length() != 3 || latString == null || longString == null) {
+        if (!IataCode.isValid(iata) || latString == null || longString == null) {
             LOGGER.log(Level.SEVERE, "Bad parameters iata [" + iata + "], latString [" + latString +
                     ",] longString [" + longString + "]");
             return Response.status(Response.Status.BAD_REQUEST).build();
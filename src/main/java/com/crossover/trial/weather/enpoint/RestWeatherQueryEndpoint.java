@@ -3,15 +3,23 @@ package com.crossover.trial.weather.enpoint;
 import com.crossover.trial.weather.data.AirportData;
 import com.crossover.trial.weather.data.AirportDataHolder;
 import com.crossover.trial.weather.data.AtmosphericInformation;
+import com.crossover.trial.weather.data.DataPointHistory;
+import com.crossover.trial.weather.data.DataPointType;
 import com.crossover.trial.weather.service.WeatherQueryService;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,18 +34,31 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 
     public final static Logger LOGGER = Logger.getLogger("WeatherQuery");
 
+    private static final byte[] NULL_JSON = "null".getBytes(StandardCharsets.US_ASCII);
+
     /**
      * Retrieve service health including total size of valid data points and request frequency information.
      *
      * @return health stats for the service as a string
      */
     @Override
-    @GET
-    @Path("/ping")
     public String ping() {
         return WeatherQueryService.getInstance().ping();
     }
 
+    /**
+     * Serve the cached health stats without copying them, see {@link WeatherQueryService#pingBytes(boolean)}
+     *
+     * @param fresh compute the health stats now instead of returning the cached ones
+     * @return health stats for the service as JSON
+     */
+    @GET
+    @Path("/ping")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response ping(@QueryParam("fresh") boolean fresh) {
+        return Response.status(Response.Status.OK).entity(WeatherQueryService.getInstance().pingBytes(fresh)).build();
+    }
+
     /**
      * Given a query in json format {'iata': CODE, 'radius': km} extracts the requested airport information and
      * return a list of matching atmosphere information.
@@ -65,7 +86,143 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
             return Response.status(Response.Status.BAD_REQUEST).
                     entity("Airport data not found for iata [" + iata + "]").build();
         }
-        List<AtmosphericInformation> retval = WeatherQueryService.getInstance().weather(iata, radiusString);
-        return Response.status(Response.Status.OK).entity(retval).build();
+        WeatherQueryService queryService = WeatherQueryService.getInstance();
+        double radius = WeatherQueryService.parseRadius(radiusString);
+        if (queryService.isStreamed(radius)) {
+            return Response.status(Response.Status.OK).entity(streamJsonArray(iata, radius)).build();
+        }
+        List<AtmosphericInformation> retval = queryService.weather(iata, radiusString);
+        return Response.status(Response.Status.OK).entity(toJsonArray(retval)).build();
+    }
+
+    /**
+     * Write the matching records to the response as the index walk finds them, so that memory use does not grow
+     * with the number of matches
+     *
+     * @param iata   the iataCode
+     * @param radius the radius in km
+     * @return the response entity writing a JSON array
+     */
+    private static StreamingOutput streamJsonArray(String iata, double radius) {
+        return output -> {
+            boolean[] first = {true};
+            output.write('[');
+            try {
+                WeatherQueryService.getInstance().streamWeather(iata, radius, ai -> {
+                    try {
+                        if (!first[0]) {
+                            output.write(',');
+                        }
+                        first[0] = false;
+                        output.write(ai == null ? NULL_JSON : ai.jsonBytes());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.write(']');
+        };
+    }
+
+    /**
+     * Join the cached JSON of every record into a JSON array, without serializing any of them again
+     *
+     * @param atmosphericInformation the records, null elements are written as null
+     * @return UTF-8 encoded JSON array
+     */
+    static byte[] toJsonArray(List<AtmosphericInformation> atmosphericInformation) {
+        byte[][] fragments = new byte[atmosphericInformation.size()][];
+        int length = 2 + Math.max(0, fragments.length - 1);
+        for (int i = 0; i < fragments.length; i++) {
+            AtmosphericInformation ai = atmosphericInformation.get(i);
+            fragments[i] = ai == null ? NULL_JSON : ai.jsonBytes();
+            length += fragments[i].length;
+        }
+        byte[] json = new byte[length];
+        int position = 0;
+        json[position++] = '[';
+        for (int i = 0; i < fragments.length; i++) {
+            if (i > 0) {
+                json[position++] = ',';
+            }
+            System.arraycopy(fragments[i], 0, json, position, fragments[i].length);
+            position += fragments[i].length;
+        }
+        json[position] = ']';
+        return json;
+    }
+
+    /**
+     * Retrieve the recent data points of a type at an airport, optionally combined into buckets of equal length.
+     * Nothing is kept unless the history is turned on, see {@link AirportDataHolder#HISTORY_CAPACITY}.
+     *
+     * @param iata        the iataCode
+     * @param pointType   the point type, {@link DataPointType} for a complete list
+     * @param from        start of the range in milliseconds since UTC epoch, inclusive, the oldest kept if null
+     * @param to          end of the range in milliseconds since UTC epoch, exclusive, the newest kept if null
+     * @param bucket      length of a bucket in ms, every data point on its own if null or 0
+     * @param aggregation min, max or mean of the data points in a bucket, mean if null
+     * @return the data points or buckets as parallel arrays of time, mean, quartiles and counts
+     */
+    @Override
+    @GET
+    @Path("/history/{iata}/{pointType}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response history(@PathParam("iata") String iata,
+                            @PathParam("pointType") String pointType,
+                            @QueryParam("from") String from,
+                            @QueryParam("to") String to,
+                            @QueryParam("bucket") String bucket,
+                            @QueryParam("agg") String aggregation) {
+        DataPointType type = DataPointType.resolve(pointType);
+        if (type == null) {
+            LOGGER.log(Level.SEVERE, "Bad parameters pointType [" + pointType + "]");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Please specify the correct point type.")
+                    .build();
+        }
+        DataPointHistory.Aggregation agg = aggregation == null ? DataPointHistory.Aggregation.MEAN
+                : DataPointHistory.Aggregation.resolve(aggregation);
+        if (agg == null) {
+            LOGGER.log(Level.SEVERE, "Bad parameters agg [" + aggregation + "]");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Please specify min, max or mean.").build();
+        }
+        long fromMillis;
+        long toMillis;
+        long bucketMillis;
+        try {
+            fromMillis = from == null ? Long.MIN_VALUE : Long.parseLong(from);
+            toMillis = to == null ? Long.MAX_VALUE : Long.parseLong(to);
+            bucketMillis = bucket == null ? 0 : Long.parseLong(bucket);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.SEVERE, "Bad parameters from [" + from + "], to [" + to + "], bucket [" + bucket + "]");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Please specify the range in ms.").build();
+        }
+        if (bucketMillis < 0) {
+            LOGGER.log(Level.SEVERE, "Bad parameters bucket [" + bucket + "]");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Please specify the range in ms.").build();
+        }
+        Map<String, Object> history = WeatherQueryService.getInstance().history(iata, type, fromMillis, toMillis,
+                bucketMillis, agg);
+        if (history == null) {
+            LOGGER.log(Level.SEVERE, "Airport data could not be found for iata [" + iata + "]");
+            return Response.status(Response.Status.BAD_REQUEST).
+                    entity("Airport data not found for iata [" + iata + "]").build();
+        }
+        return Response.status(Response.Status.OK).entity(history).build();
+    }
+
+    /**
+     * Retrieve statistics of the query service
+     *
+     * @return statistics of the query service as JSON
+     */
+    @Override
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats() {
+        return Response.status(Response.Status.OK).entity(WeatherQueryService.getInstance().getStats()).build();
     }
 }
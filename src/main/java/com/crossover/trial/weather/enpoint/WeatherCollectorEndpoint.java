@@ -67,6 +67,13 @@ public interface WeatherCollectorEndpoint {
      */
     Response deleteAirport(String iata);
 
+    /**
+     * Retrieve statistics of the collector, such as the queue depth and lag of async ingestion.
+     *
+     * @return an HTTP Response with a JSON formatted dict of statistics
+     */
+    Response stats();
+
     /**
      * @return
      */
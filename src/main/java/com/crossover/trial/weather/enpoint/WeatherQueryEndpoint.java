@@ -14,7 +14,7 @@ public interface WeatherQueryEndpoint {
     /**
      * Retrieve health and status information for the the query api. Returns information about how the number
      * of datapoints currently held in memory, the frequency of requests for each IATA code and the frequency of
-     * requests for each radius.
+     * requests for each radius, as a fixed size log-linear histogram of the radius in km.
      *
      * @return a JSON formatted dict with health information.
      */
@@ -31,4 +31,25 @@ public interface WeatherQueryEndpoint {
      */
     Response weather(String iata,
                      String radiusString);
+
+    /**
+     * Retrieve the recent data points of a type at an airport, optionally combined into buckets of equal length.
+     *
+     * @param iata        the three letter airport code
+     * @param pointType   the point type, {@link com.crossover.trial.weather.data.DataPointType} for a complete list
+     * @param from        start of the range in milliseconds since UTC epoch, inclusive, the oldest kept if null
+     * @param to          end of the range in milliseconds since UTC epoch, exclusive, the newest kept if null
+     * @param bucket      length of a bucket in ms, every data point on its own if null or 0
+     * @param aggregation min, max or mean of the data points in a bucket, mean if null
+     * @return an HTTP Response with a JSON formatted dict of parallel arrays of time, mean, quartiles and
+     * counts
+     */
+    Response history(String iata, String pointType, String from, String to, String bucket, String aggregation);
+
+    /**
+     * Retrieve statistics of the query service, such as the hit rate of the radius query cache.
+     *
+     * @return an HTTP Response with a JSON formatted dict of statistics
+     */
+    Response stats();
 }
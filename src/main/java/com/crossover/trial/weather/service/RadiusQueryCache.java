@@ -0,0 +1,350 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.data.AirportData;
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.AirportDataListener;
+import com.crossover.trial.weather.data.AtmosphericInformation;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of radius query results. An entry remembers every airport inside its circle, an update of one of
+ * them drops the entry right away, so a hit neither locks nor looks at the airports of the result. Adding or removing
+ * an airport drops the entries whose circle contains it. Once the cache is full the least recently used entries are
+ * dropped in batches.
+ * <p>
+ * Identical queries that miss at the same time share a single computation, the first one computes the result and
+ * the others wait for it.
+ *
+ * @author code test administrator
+ */
+class RadiusQueryCache implements AirportDataListener {
+
+    private final AirportDataHolder dataHolder;
+
+    private final int capacity;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * cached entries by the ordinals of the airports in their circle, a set is only read or changed inside a
+     * {@link ConcurrentHashMap#compute} of its ordinal, or after it was removed from the map
+     */
+    private final ConcurrentHashMap<Integer, Set<Entry>> dependents = new ConcurrentHashMap<>();
+
+    /**
+     * computations in progress, completed and removed by the thread that started them
+     */
+    private final Map<Key, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * incremented by every add or remove before the entries containing the airport are dropped, a result computed
+     * while it changed is not cached since it may miss the airport
+     */
+    private final AtomicLong catalogChanges = new AtomicLong();
+
+    /**
+     * set while a thread drops the least recently used entries
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param capacity   maximum number of cached results, 0 to only count misses
+     * @param dataHolder holder of the airports, the cache registers itself as a listener
+     */
+    RadiusQueryCache(int capacity, AirportDataHolder dataHolder) {
+        this.dataHolder = dataHolder;
+        this.capacity = capacity;
+        dataHolder.addListener(this);
+    }
+
+    /**
+     * Get the atmospheric information of every airport within the radius of another one, from the cache when
+     * possible. The first element is the center airport, followed by every airport in the radius with data.
+     *
+     * @param ordinal ordinal of the center airport
+     * @param radius  radius in km
+     * @return the matching atmospheric information, must not be modified
+     */
+    List<AtmosphericInformation> get(int ordinal, double radius) {
+        AirportData center = dataHolder.getAirportData(ordinal);
+        if (center == null) {
+            return Collections.emptyList();
+        }
+        Key key = new Key(center.getIata(), radius);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.center == center && !entry.dropped) {
+            entry.lastUsed = System.nanoTime();
+            hits.increment();
+            return entry.result;
+        }
+        misses.increment();
+        long changes = catalogChanges.get();
+
+        CompletableFuture<Entry> flight = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            entry = running.join();
+            // the shared computation may have started before this query, only use it if nothing changed since
+            if (entry.center == center && entry.isCurrent()) {
+                coalesced.increment();
+                return entry.result;
+            }
+            return compute(key, ordinal, center, radius).result;
+        }
+        try {
+            entry = compute(key, ordinal, center, radius);
+            flight.complete(entry);
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+        if (capacity > 0) {
+            cache(entry, changes);
+        }
+        return entry.result;
+    }
+
+    /**
+     * Make an entry visible to updates and then to queries, and check it afterwards, so that a change reported
+     * before the entry could be found drops it as well
+     *
+     * @param entry   the computed entry
+     * @param changes catalog changes before the entry was computed
+     */
+    private void cache(Entry entry, long changes) {
+        entry.lastUsed = System.nanoTime();
+        for (int i = 0; i < entry.size; i++) {
+            dependents.compute(entry.ordinals[i], (ordinal, set) -> {
+                Set<Entry> members = set == null ? new HashSet<>() : set;
+                members.add(entry);
+                return members;
+            });
+        }
+        Entry replaced = entries.put(entry.key, entry);
+        if (replaced != null) {
+            drop(replaced);
+        }
+        if (catalogChanges.get() != changes || !entry.isCurrent()) {
+            drop(entry);
+        } else if (entries.size() > capacity) {
+            evict();
+        }
+    }
+
+    /**
+     * Drop the least recently used entries, an eighth of the capacity more than necessary, so the scan is only paid
+     * once every so many misses. A thread finding another one evicting leaves it to that one.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Entry[] candidates = entries.values().toArray(new Entry[0]);
+            int excess = candidates.length - capacity;
+            if (excess <= 0) {
+                return;
+            }
+            // a snapshot, since hits keep changing the times while they are sorted
+            long[] lastUsed = new long[candidates.length];
+            for (int i = 0; i < candidates.length; i++) {
+                lastUsed[i] = candidates[i].lastUsed;
+            }
+            long[] sorted = lastUsed.clone();
+            Arrays.sort(sorted);
+            long threshold = sorted[Math.min(candidates.length, excess + capacity / 8) - 1];
+            for (int i = 0; i < candidates.length; i++) {
+                if (lastUsed[i] <= threshold) {
+                    drop(candidates[i]);
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * remove an entry from the cache and from the dependents of its airports, a query holding it misses from now on
+     */
+    private void drop(Entry entry) {
+        entry.dropped = true;
+        entries.remove(entry.key, entry);
+        for (int i = 0; i < entry.size; i++) {
+            dependents.computeIfPresent(entry.ordinals[i], (ordinal, set) -> {
+                set.remove(entry);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private Entry compute(Key key, int ordinal, AirportData center, double radius) {
+        double angularRadius = radius / WeatherQueryService.R;
+        Entry entry = new Entry(key, center, AirportData.squaredChord(angularRadius));
+        List<AtmosphericInformation> result = new ArrayList<>();
+        AtmosphericInformation centerInformation = dataHolder.getAtmosphericInformation(ordinal);
+        entry.addMember(ordinal, center, centerInformation);
+        result.add(centerInformation);
+        dataHolder.forEachOrdinalWithin(ordinal, angularRadius, nearby -> {
+            AirportData airport = dataHolder.getAirportData(nearby);
+            AtmosphericInformation ai = dataHolder.getAtmosphericInformation(nearby);
+            entry.addMember(nearby, airport, ai);
+            if (ai != null && ai.hasData()) {
+                result.add(ai);
+            }
+        });
+        entry.result = Collections.unmodifiableList(result);
+        return entry;
+    }
+
+    @Override
+    public void airportAdded(int ordinal, AirportData data) {
+        invalidate(data);
+    }
+
+    @Override
+    public void airportRemoved(int ordinal, AirportData data) {
+        invalidate(data);
+        dropDependents(ordinal);
+    }
+
+    @Override
+    public void atmosphericInformationUpdated(int ordinal, AirportData data, AtmosphericInformation updated) {
+        dropDependents(ordinal);
+    }
+
+    private void invalidate(AirportData airport) {
+        catalogChanges.incrementAndGet();
+        for (Entry entry : entries.values()) {
+            if (entry.center.squaredChordTo(airport) <= entry.maxSquaredChord) {
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * drop every entry with the airport of this ordinal in its circle
+     */
+    private void dropDependents(int ordinal) {
+        Set<Entry> stale = dependents.remove(ordinal);
+        if (stale != null) {
+            for (Entry entry : stale) {
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * Get the cache statistics
+     *
+     * @return size, hits, misses and hit rate of the cache, and the number of misses served by another query's
+     * computation
+     */
+    Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("coalesced", coalesced.sum());
+        stats.put("hit_rate", hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    private static final class Key {
+        final String iata;
+        final double radius;
+
+        Key(String iata, double radius) {
+            this.iata = iata;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return iata.equals(key.iata) && Double.compare(radius, key.radius) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * iata.hashCode() + Double.hashCode(radius);
+        }
+    }
+
+    /**
+     * a cached result and the airports it depends on, in parallel arrays
+     */
+    private final class Entry {
+        final Key key;
+        final AirportData center;
+        final double maxSquaredChord;
+        int size;
+        int[] ordinals = new int[8];
+        AirportData[] airports = new AirportData[8];
+        long[] versions = new long[8];
+        List<AtmosphericInformation> result;
+
+        /**
+         * set once an update, add, remove or eviction took the entry out of the cache
+         */
+        volatile boolean dropped;
+
+        /**
+         * time of the last hit, in {@link System#nanoTime()}
+         */
+        volatile long lastUsed;
+
+        Entry(Key key, AirportData center, double maxSquaredChord) {
+            this.key = key;
+            this.center = center;
+            this.maxSquaredChord = maxSquaredChord;
+        }
+
+        void addMember(int ordinal, AirportData airport, AtmosphericInformation ai) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                airports = Arrays.copyOf(airports, size * 2);
+                versions = Arrays.copyOf(versions, size * 2);
+            }
+            ordinals[size] = ordinal;
+            airports[size] = airport;
+            versions[size] = ai == null ? -1 : ai.version();
+            size++;
+        }
+
+        /**
+         * Compare the recorded airports of the circle with the current ones, only done for a result that has not
+         * been cached yet, cached entries are dropped by the updates instead
+         *
+         * @return true if no airport in the circle was removed or updated since the result was computed
+         */
+        boolean isCurrent() {
+            for (int i = 0; i < size; i++) {
+                AirportData airport = dataHolder.getAirportData(ordinals[i]);
+                AtmosphericInformation ai = dataHolder.getAtmosphericInformation(ordinals[i]);
+                if (airport != airports[i] || ai == null || ai.version() != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
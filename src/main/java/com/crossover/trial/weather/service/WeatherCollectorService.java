@@ -1,12 +1,22 @@
 package com.crossover.trial.weather.service;
 
+import com.crossover.trial.weather.data.AirportCatalogParser;
+import com.crossover.trial.weather.data.AirportCatalogReader;
+import com.crossover.trial.weather.data.AirportData;
 import com.crossover.trial.weather.data.AirportDataHolder;
 import com.crossover.trial.weather.data.AtmosphericInformation;
 import com.crossover.trial.weather.data.DataPoint;
 import com.crossover.trial.weather.data.DataPointType;
 import com.crossover.trial.weather.exception.WeatherUpdateException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,6 +28,17 @@ import java.util.logging.Logger;
  */
 public class WeatherCollectorService {
     public final static Logger LOGGER = Logger.getLogger(WeatherCollectorService.class.getName());
+
+    /**
+     * number of airports of a catalog import added to the holder at once
+     */
+    public static final int CATALOG_BATCH_SIZE = Integer.getInteger("weather.catalog.batchSize", 1000);
+
+    /**
+     * most line numbers of invalid catalog lines listed in the import summary
+     */
+    private static final int MAX_REPORTED_INVALID_LINES = 100;
+
     private static volatile WeatherCollectorService weatherCollectorService;
 
     public static WeatherCollectorService getInstance() {
@@ -39,56 +60,192 @@ public class WeatherCollectorService {
     public Set<String> getAirports() {
         Set<String> airports = new HashSet<>();
         AirportDataHolder.getInstance().
-                getAirportDataMap().
+                getAllAirportData().
                 forEach(airport -> airports.add(airport.getIata()));
         return airports;
     }
 
     /**
-     * update atmospheric information with the given data point for the given point type
+     * Import an airport catalog as it streams in, adding the airports in batches of {@link #CATALOG_BATCH_SIZE}
      *
-     * @param atmosphericInformation the atmospheric information object to update
-     * @param pointType              the data point type as a string
-     * @param dp                     the actual data point
+     * @param catalog the catalog, UTF-8 encoded
+     * @param format  format of the catalog
+     * @return summary with the number of added airports, of conflicts with known airports or earlier lines, and of
+     * invalid lines with the first of their line numbers
+     * @throws IOException if the catalog can not be read
      */
-    public AtmosphericInformation updateAtmosphericValues(AtmosphericInformation atmosphericInformation,
-                                                          String pointType, DataPoint dp) throws WeatherUpdateException {
+    public Map<String, Object> importAirports(InputStream catalog, AirportCatalogReader.Format format)
+            throws IOException {
+        CatalogImport catalogImport = new CatalogImport();
+        AirportCatalogReader.read(catalog, format, catalogImport::add, catalogImport::invalid);
+        return catalogImport.finish();
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.WIND.name())) {
-            if (dp.getMean() >= 0) {
-                atmosphericInformation.setWind(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+    /**
+     * Import an airports.dat file through a memory mapping, adding the airports in batches of
+     * {@link #CATALOG_BATCH_SIZE}
+     *
+     * @param catalog path of the catalog
+     * @return summary as for {@link #importAirports(InputStream, AirportCatalogReader.Format)}
+     * @throws IOException if the catalog can not be read
+     */
+    public Map<String, Object> importAirports(Path catalog) throws IOException {
+        CatalogImport catalogImport = new CatalogImport();
+        AirportCatalogParser.parse(catalog, row -> {
+            AirportData airport = row.toAirportData();
+            if (airport == null) {
+                catalogImport.invalid(row.lineNumber());
+            } else {
+                catalogImport.add(airport);
             }
-        } else if (pointType.equalsIgnoreCase(DataPointType.TEMPERATURE.name())) {
-            if (dp.getMean() >= -50 && dp.getMean() < 100) {
-                atmosphericInformation.setTemperature(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+        });
+        return catalogImport.finish();
+    }
+
+    /**
+     * collects the airports of a catalog into batches and counts the outcome of every line
+     */
+    private static final class CatalogImport {
+        final AirportDataHolder dataHolder = AirportDataHolder.getInstance();
+        final List<AirportData> batch = new ArrayList<>(CATALOG_BATCH_SIZE);
+        final List<Integer> invalidLines = new ArrayList<>();
+        int added;
+        int conflicts;
+        int invalid;
+
+        void add(AirportData airport) {
+            batch.add(airport);
+            if (batch.size() == CATALOG_BATCH_SIZE) {
+                flush();
             }
-        } else if (pointType.equalsIgnoreCase(DataPointType.HUMIDTY.name())) {
-            if (dp.getMean() >= 0 && dp.getMean() < 100) {
-                atmosphericInformation.setHumidity(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+        }
+
+        void invalid(int line) {
+            invalid++;
+            if (invalidLines.size() < MAX_REPORTED_INVALID_LINES) {
+                invalidLines.add(line);
             }
-        } else if (pointType.equalsIgnoreCase(DataPointType.PRESSURE.name())) {
-            if (dp.getMean() >= 650 && dp.getMean() < 800) {
-                atmosphericInformation.setPressure(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
             }
-        } else if (pointType.equalsIgnoreCase(DataPointType.CLOUDCOVER.name())) {
-            if (dp.getMean() >= 0 && dp.getMean() < 100) {
-                atmosphericInformation.setCloudCover(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+            for (boolean isAdded : dataHolder.addAllAirportData(batch)) {
+                if (isAdded) {
+                    added++;
+                } else {
+                    conflicts++;
+                }
             }
-        } else if (pointType.equalsIgnoreCase(DataPointType.PRECIPITATION.name())) {
-            if (dp.getMean() >= 0 && dp.getMean() < 100) {
-                atmosphericInformation.setPrecipitation(dp);
-                atmosphericInformation.setLastUpdateTime(System.currentTimeMillis());
+            batch.clear();
+        }
+
+        Map<String, Object> finish() {
+            flush();
+            if (invalid > 0) {
+                LOGGER.log(Level.SEVERE, invalid + " invalid lines in the airport catalog, first at " + invalidLines);
             }
-        } else {
-            LOGGER.log(Level.SEVERE, "Weather information cannot be updated due to [pointType] " + pointType + " doesn't" +
-                    " match with existing point types: TEMPERATURE, HUMIDTY, PRESSURE,CLOUDCOVER, PRECIPITATION ");
-            throw new WeatherUpdateException("couldn't update atmospheric data");
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("added", added);
+            summary.put("conflicts", conflicts);
+            summary.put("invalid", invalid);
+            summary.put("invalid_lines", invalidLines);
+            return summary;
+        }
+    }
+
+    /**
+     * Update the atmospheric information of an airport with the given data point for the given point type
+     *
+     * @param iataCode  the 3 letter airport code
+     * @param pointType the data point type as a string
+     * @param dp        the actual data point
+     * @return false if the airport is not known
+     * @throws WeatherUpdateException if the point type is not known
+     */
+    public boolean updateAtmosphericInformation(String iataCode, String pointType, DataPoint dp)
+            throws WeatherUpdateException {
+        return updateAtmosphericInformation(AirportDataHolder.getInstance(), iataCode, findDataPointType(pointType),
+                dp);
+    }
+
+    /**
+     * Update the atmospheric information of an airport with the given data point for the given point type, and
+     * append an accepted data point to the history of the airport
+     *
+     * @param dataHolder holder of the airport
+     * @param iataCode   the 3 letter airport code
+     * @param pointType  the data point type
+     * @param dp         the actual data point
+     * @return false if the airport is not known
+     */
+    boolean updateAtmosphericInformation(AirportDataHolder dataHolder, String iataCode, DataPointType pointType,
+                                         DataPoint dp) {
+        return updateAtmosphericInformation(dataHolder, iataCode, pointType, dp, System.currentTimeMillis());
+    }
+
+    /**
+     * Update the atmospheric information of an airport as {@link #updateAtmosphericInformation(AirportDataHolder,
+     * String, DataPointType, DataPoint)} does, at a given time
+     *
+     * @param dataHolder holder of the airport
+     * @param iataCode   the 3 letter airport code
+     * @param pointType  the data point type
+     * @param dp         the actual data point
+     * @param time       time of the update in milliseconds since UTC epoch
+     * @return false if the airport is not known
+     */
+    boolean updateAtmosphericInformation(AirportDataHolder dataHolder, String iataCode, DataPointType pointType,
+                                         DataPoint dp, long time) {
+        return dataHolder.updateAtmosphericInformation(iataCode, pointType,
+                current -> updateAtmosphericValues(current, pointType, dp, time));
+    }
+
+    /**
+     * Find the data point type matching a point type name, ignoring case
+     *
+     * @param pointType the data point type as a string
+     * @return the data point type
+     * @throws WeatherUpdateException if the point type is not known
+     */
+    public DataPointType findDataPointType(String pointType) throws WeatherUpdateException {
+        DataPointType type = DataPointType.resolve(pointType);
+        if (type != null) {
+            return type;
         }
-        return atmosphericInformation;
+        LOGGER.log(Level.SEVERE, "Weather information cannot be updated due to [pointType] " + pointType + " doesn't" +
+                " match with existing point types: TEMPERATURE, HUMIDTY, PRESSURE,CLOUDCOVER, PRECIPITATION ");
+        throw new WeatherUpdateException("couldn't update atmospheric data");
+    }
+
+    /**
+     * Create updated atmospheric information with the given data point for the given point type. Data points with a
+     * mean outside the valid range of the point type, see {@link DataPointType#accepts(double)}, are ignored.
+     *
+     * @param atmosphericInformation the current atmospheric information, left untouched
+     * @param pointType              the data point type
+     * @param dp                     the actual data point
+     * @return the updated atmospheric information, or the given one if the data point is ignored
+     */
+    public AtmosphericInformation updateAtmosphericValues(AtmosphericInformation atmosphericInformation,
+                                                          DataPointType pointType, DataPoint dp) {
+        return updateAtmosphericValues(atmosphericInformation, pointType, dp, System.currentTimeMillis());
+    }
+
+    /**
+     * Create updated atmospheric information as {@link #updateAtmosphericValues(AtmosphericInformation,
+     * DataPointType, DataPoint)} does, at a given time
+     *
+     * @param atmosphericInformation the current atmospheric information, left untouched
+     * @param pointType              the data point type
+     * @param dp                     the actual data point
+     * @param time                   time of the update in milliseconds since UTC epoch
+     * @return the updated atmospheric information, or the given one if the data point is ignored
+     */
+    public AtmosphericInformation updateAtmosphericValues(AtmosphericInformation atmosphericInformation,
+                                                          DataPointType pointType, DataPoint dp, long time) {
+        boolean valid = pointType.accepts(dp.getMean());
+        return valid ? atmosphericInformation.withDataPoint(pointType, dp, time) : atmosphericInformation;
     }
 }
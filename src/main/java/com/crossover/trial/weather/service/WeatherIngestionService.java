@@ -0,0 +1,282 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.DataPoint;
+import com.crossover.trial.weather.data.DataPointType;
+import com.crossover.trial.weather.data.IataCode;
+import com.crossover.trial.weather.data.LogLinearHistogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous ingestion of collected data points. Updates are sharded by airport into bounded queues, each drained
+ * by a single writer thread, so collectors only pay for validation and an enqueue while the holder is written by a
+ * fixed number of threads no matter how many collectors post at once.
+ * <p>
+ * Data points are validated before they are queued, so only valid ones take part in coalescing. A writer takes
+ * whatever is queued in one drain cycle and applies only the latest update of every airport and point type, the
+ * others are coalesced into it and only added to the history of the airport. An update that finds its queue full is
+ * dropped and has to be retried by the collector.
+ *
+ * @author code test administrator
+ */
+public class WeatherIngestionService {
+    public final static Logger LOGGER = Logger.getLogger(WeatherIngestionService.class.getName());
+
+    /**
+     * "sync" applies collected data points on the request thread, "async" queues them for the writer threads
+     */
+    public static final String INGEST_MODE = System.getProperty("weather.ingest.mode", "sync");
+
+    /**
+     * number of queues and writer threads in async mode
+     */
+    public static final int INGEST_SHARDS = Integer.getInteger("weather.ingest.shards", 4);
+
+    /**
+     * maximum number of queued updates per shard, further updates are dropped
+     */
+    public static final int INGEST_QUEUE_CAPACITY = Integer.getInteger("weather.ingest.queueCapacity", 8192);
+
+    /**
+     * longest time in ms a collector asking for a synchronous acknowledgement waits for its update to be applied
+     */
+    public static final long INGEST_ACK_TIMEOUT_MILLIS = Long.getLong("weather.ingest.ackTimeoutMillis", 5000);
+
+    /**
+     * most updates a writer takes from its queue in one drain cycle
+     */
+    private static final int DRAIN_BATCH = 1024;
+
+    /**
+     * lag up to about 17 minutes in ms gets its own histogram bucket
+     */
+    private static final int LAG_MAGNITUDE_BITS = 20;
+
+    private static volatile WeatherIngestionService weatherIngestionService;
+
+    private final AirportDataHolder dataHolder;
+
+    private final WeatherCollectorService collectorService;
+
+    private final List<BlockingQueue<Update>> queues = new ArrayList<>();
+
+    private final LongAdder enqueued = new LongAdder();
+
+    private final LongAdder applied = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * time from enqueue to apply in ms, of every update including the coalesced ones
+     */
+    private final LogLinearHistogram lag = new LogLinearHistogram(LAG_MAGNITUDE_BITS);
+
+    private final LongAccumulator maxLag = new LongAccumulator(Math::max, 0);
+
+    public static WeatherIngestionService getInstance() {
+        if (weatherIngestionService == null) {
+            synchronized (WeatherIngestionService.class) {
+                if (weatherIngestionService == null) {
+                    weatherIngestionService = new WeatherIngestionService(INGEST_SHARDS, INGEST_QUEUE_CAPACITY,
+                            AirportDataHolder.getInstance(), WeatherCollectorService.getInstance());
+                }
+            }
+        }
+        return weatherIngestionService;
+    }
+
+    /**
+     * Check whether collected data points should be submitted to this service instead of being applied directly
+     *
+     * @return true in async mode
+     */
+    public static boolean isAsync() {
+        return "async".equalsIgnoreCase(INGEST_MODE);
+    }
+
+    /**
+     * @param shards           number of queues, each with its own writer thread
+     * @param capacity         maximum number of queued updates per shard
+     * @param dataHolder       holder the updates are applied to
+     * @param collectorService creates the updated atmospheric information
+     */
+    WeatherIngestionService(int shards, int capacity, AirportDataHolder dataHolder,
+                            WeatherCollectorService collectorService) {
+        this.dataHolder = dataHolder;
+        this.collectorService = collectorService;
+        for (int shard = 0; shard < shards; shard++) {
+            BlockingQueue<Update> queue = new ArrayBlockingQueue<>(capacity);
+            queues.add(queue);
+            Thread writer = new Thread(() -> drain(queue), "ingest-writer-" + shard);
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Queue a data point for the writer thread of its airport
+     *
+     * @param iataCode  the 3 letter airport code
+     * @param pointType the data point type
+     * @param dp        the actual data point
+     * @return completed once the update is applied, or coalesced into a later one, with false if the airport is not
+     * known; null if the queue is full and the update was dropped. A data point with a mean outside the valid range
+     * of its type, see {@link DataPointType#accepts(double)}, is ignored as in synchronous mode, without being
+     * queued, so it can not supersede a valid one.
+     */
+    public CompletableFuture<Boolean> submit(String iataCode, DataPointType pointType, DataPoint dp) {
+        int iata = IataCode.pack(iataCode);
+        if (iata == IataCode.INVALID) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!pointType.accepts(dp.getMean())) {
+            rejected.increment();
+            return CompletableFuture.completedFuture(dataHolder.findOrdinal(iataCode) >= 0);
+        }
+        Update update = new Update(iataCode, (long) iata * DataPointType.values().length + pointType.ordinal(),
+                pointType, dp, System.currentTimeMillis(), System.nanoTime());
+        if (!queues.get(iata % queues.size()).offer(update)) {
+            dropped.increment();
+            return null;
+        }
+        enqueued.increment();
+        return update;
+    }
+
+    private void drain(BlockingQueue<Update> queue) {
+        List<Update> batch = new ArrayList<>(DRAIN_BATCH);
+        Map<Long, Update> latest = new LinkedHashMap<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, DRAIN_BATCH - 1);
+            try {
+                applyBatch(batch, latest);
+            } catch (RuntimeException e) {
+                // the writer must keep draining, otherwise every later update of its shard waits in vain
+                LOGGER.log(Level.SEVERE, "Could not apply a batch of " + batch.size() + " updates", e);
+                for (Update update : batch) {
+                    update.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+                latest.clear();
+            }
+        }
+    }
+
+    /**
+     * apply the latest update of every airport and point type in a batch and complete all of them
+     */
+    private void applyBatch(List<Update> batch, Map<Long, Update> latest) {
+        for (Update update : batch) {
+            Update previous = latest.put(update.key, update);
+            if (previous != null) {
+                coalesced.increment();
+                // recorded before the update replacing it is applied, so the history stays in order
+                if (dataHolder.getHistoryCapacity() > 0) {
+                    dataHolder.recordHistory(previous.iataCode, previous.pointType, previous.receivedMillis,
+                            previous.dataPoint);
+                }
+            }
+        }
+        for (Update update : latest.values()) {
+            apply(update);
+        }
+        long now = System.nanoTime();
+        for (Update update : batch) {
+            Update winner = latest.get(update.key);
+            if (winner.failure != null) {
+                update.completeExceptionally(winner.failure);
+            } else {
+                update.complete(winner.updated);
+            }
+            long lagMillis = TimeUnit.NANOSECONDS.toMillis(now - update.enqueuedNanos);
+            lag.record(lagMillis);
+            maxLag.accumulate(lagMillis);
+        }
+    }
+
+    private void apply(Update update) {
+        try {
+            update.updated = collectorService.updateAtmosphericInformation(dataHolder, update.iataCode,
+                    update.pointType, update.dataPoint, update.receivedMillis);
+            applied.increment();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not apply the update of airport [" + update.iataCode + "]", e);
+            update.failure = e;
+        }
+    }
+
+    /**
+     * Retrieve statistics of the ingestion
+     *
+     * @return mode, queued updates per shard, counts of enqueued, applied, coalesced, dropped and rejected updates,
+     * and the lag between enqueue and apply as a log-linear histogram in ms
+     */
+    public Map<String, Object> getStats() {
+        int[] depth = new int[queues.size()];
+        for (int shard = 0; shard < depth.length; shard++) {
+            depth[shard] = queues.get(shard).size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", isAsync() ? "async" : "sync");
+        stats.put("queue_depth", depth);
+        stats.put("enqueued", enqueued.sum());
+        stats.put("applied", applied.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("max_lag_millis", maxLag.get());
+        // log-linear buckets, see LogLinearHistogram.lowerBound for the lag range of each
+        stats.put("lag_millis", lag.getCounts());
+        return stats;
+    }
+
+    /**
+     * a queued data point, completed by the writer thread
+     */
+    private static final class Update extends CompletableFuture<Boolean> {
+        final String iataCode;
+        final long key;
+        final DataPointType pointType;
+        final DataPoint dataPoint;
+
+        /**
+         * time the update was submitted in milliseconds since UTC epoch, the time of the update when it is applied
+         */
+        final long receivedMillis;
+        final long enqueuedNanos;
+        boolean updated;
+        RuntimeException failure;
+
+        Update(String iataCode, long key, DataPointType pointType, DataPoint dataPoint, long receivedMillis,
+               long enqueuedNanos) {
+            this.iataCode = iataCode;
+            this.key = key;
+            this.pointType = pointType;
+            this.dataPoint = dataPoint;
+            this.receivedMillis = receivedMillis;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -2,10 +2,22 @@ package com.crossover.trial.weather.service;
 
 import com.crossover.trial.weather.data.AirportData;
 import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.AirportDataListener;
 import com.crossover.trial.weather.data.AtmosphericInformation;
+import com.crossover.trial.weather.data.DataPointHistory;
+import com.crossover.trial.weather.data.DataPointType;
 import com.google.gson.Gson;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -25,10 +37,71 @@ public class WeatherQueryService {
      */
     public static final Gson gson = new Gson();
 
+    /**
+     * the cached ping payload is rebuilt in the background at this interval, so request frequencies catch up, 0 turns
+     * the periodic rebuild off
+     */
+    public static final long PING_REFRESH_MILLIS = Long.getLong("weather.ping.refreshMillis", 1000);
+
+    /**
+     * the cached ping payload is also rebuilt in the background once this many airports were added or removed since
+     * it was built. Readings never rebuild it, the data size is read for every ping.
+     */
+    public static final long PING_MAX_MODIFICATIONS = Long.getLong("weather.ping.maxModifications", 1);
+
+    /**
+     * maximum number of cached radius query results, 0 turns the cache off
+     */
+    public static final int WEATHER_CACHE_SIZE = Integer.getInteger("weather.query.cacheSize", 1024);
+
+    /**
+     * queries with a radius in km of at least this are streamed instead of collected and cached
+     */
+    public static final double STREAMING_RADIUS =
+            Double.parseDouble(System.getProperty("weather.query.streamingRadius", "2000"));
+
     private static volatile WeatherQueryService weatherQueryService;
 
     AirportDataHolder dataHolder = AirportDataHolder.getInstance();
 
+    /**
+     * last built ping payload, null until the first ping
+     */
+    private volatile PingPayload pingPayload;
+
+    /**
+     * rebuilds the ping payload off the request threads
+     */
+    private final ScheduledExecutorService pingRefresher;
+
+    /**
+     * set while a rebuild for added or removed airports is queued, so a burst of changes queues only one
+     */
+    private final AtomicBoolean pingRebuildQueued = new AtomicBoolean();
+
+    /**
+     * number of airports added or removed, incremented while the holder is locked
+     */
+    private final AtomicLong catalogChanges = new AtomicLong();
+
+    private final LongAdder pingRebuilds = new LongAdder();
+
+    private final RadiusQueryCache radiusQueryCache;
+
+    private WeatherQueryService() {
+        radiusQueryCache = new RadiusQueryCache(WEATHER_CACHE_SIZE, dataHolder);
+        pingRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ping-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (PING_REFRESH_MILLIS > 0) {
+            pingRefresher.scheduleWithFixedDelay(() -> refreshPing(false),
+                    PING_REFRESH_MILLIS, PING_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        dataHolder.addListener(new PingInvalidator());
+    }
+
     public static WeatherQueryService getInstance() {
         if (weatherQueryService == null) {
             synchronized (WeatherQueryService.class) {
@@ -46,88 +119,219 @@ public class WeatherQueryService {
      * @return health stats for the service as a string
      */
     public String ping() {
-        Map<String, Object> retval = new HashMap<>();
+        return new String(pingBytes(false), StandardCharsets.UTF_8);
+    }
 
-        int datasize = 0;
+    /**
+     * Retrieve the service health as UTF-8 encoded JSON. The frequencies are cached and rebuilt in the background,
+     * after {@link #PING_MAX_MODIFICATIONS} airports were added or removed and otherwise every
+     * {@link #PING_REFRESH_MILLIS}, so the request thread never builds them except for the first ping. Only the
+     * data size is read on every ping, it is a single counter.
+     *
+     * @param fresh build the frequencies now instead of using the cached ones
+     * @return health stats for the service
+     */
+    public byte[] pingBytes(boolean fresh) {
+        PingPayload payload = pingPayload;
+        if (fresh || payload == null) {
+            payload = rebuildPing(!fresh);
+        }
         // we only count recent readings
-        datasize = (int) (dataHolder.getAtmosphericInformationMap().
-                stream().filter(ai -> (ai.getCloudCover() != null || ai.getHumidity() != null ||
-                ai.getPrecipitation() != null || ai.getPressure() != null ||
-                ai.getTemperature() != null || ai.getWind() != null) &&
-                ai.getLastUpdateTime() > System.currentTimeMillis() - 86400000).count());
+        byte[] datasize = (dataHolder.getFreshDataCount() + "}").getBytes(StandardCharsets.US_ASCII);
+        byte[] json = Arrays.copyOf(payload.prefix, payload.prefix.length + datasize.length);
+        System.arraycopy(datasize, 0, json, payload.prefix.length, datasize.length);
+        return json;
+    }
 
+    /**
+     * Rebuild the ping payload on the refresher thread, a failure is logged since nobody waits for it
+     *
+     * @param changedOnly only rebuild if airports were added or removed since the current payload was built
+     */
+    private void refreshPing(boolean changedOnly) {
+        try {
+            rebuildPing(changedOnly);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not refresh the ping payload", e);
+        }
+    }
 
-        retval.put("datasize", datasize);
+    /**
+     * Rebuild the ping payload
+     *
+     * @param changedOnly keep the current payload if no airport was added or removed since it was built
+     * @return the current payload
+     */
+    private synchronized PingPayload rebuildPing(boolean changedOnly) {
+        // read before building, so that a change made during the build leaves the payload out of date
+        long changes = catalogChanges.get();
+        PingPayload payload = pingPayload;
+        if (changedOnly && payload != null && payload.catalogChanges == changes) {
+            return payload;
+        }
+        pingRebuilds.increment();
+        payload = new PingPayload(buildPing().getBytes(StandardCharsets.UTF_8), changes);
+        pingPayload = payload;
+        return payload;
+    }
 
-        Map<String, Double> freq = new HashMap<>();
-        Collection<AirportData> airportDatas = dataHolder.getAirportDataMap();
-        Map<AirportData, Integer> requestFrequency = dataHolder.getRequestFrequencyMap();
-        Map<Double, Integer> radiusFreq = dataHolder.getRadiusFreqMap();
+    /**
+     * @return the ping JSON up to the value of the data size, which is appended for every ping
+     */
+    private String buildPing() {
+        Map<String, Object> retval = new LinkedHashMap<>();
+
+        Map<String, Long> requestFrequency = new HashMap<>();
+        dataHolder.forEachOrdinal(ordinal -> {
+            AirportData data = dataHolder.getAirportData(ordinal);
+            if (data != null) {
+                requestFrequency.put(data.getIata(), dataHolder.getRequestCount(ordinal));
+            }
+        });
+        long totalRequests = requestFrequency.values().stream().mapToLong(Long::longValue).sum();
         // fraction of queries
-        for (AirportData data : airportDatas) {
-            double frac = (double) requestFrequency.getOrDefault(data, 0) / requestFrequency.size();
-            freq.put(data.getIata(), frac);
-        }
+        Map<String, Double> freq = new HashMap<>();
+        requestFrequency.forEach((iata, count) ->
+                freq.put(iata, totalRequests == 0 ? 0 : (double) count / totalRequests));
         retval.put("iata_freq", freq);
 
-        int m = radiusFreq.keySet().stream()
-                .max(Double::compare)
-                .orElse(1000.0).intValue() + 1;
-
-        int[] hist = new int[m];
-        for (Map.Entry<Double, Integer> e : radiusFreq.entrySet()) {
-            int i = e.getKey().intValue() % 10;
-            hist[i] += e.getValue();
-        }
-        retval.put("radius_freq", hist);
+        // log-linear buckets, see LogLinearHistogram.lowerBound for the radius range of each
+        retval.put("radius_freq", dataHolder.getRadiusHistogram().getCounts());
 
-        return gson.toJson(retval);
+        String json = gson.toJson(retval);
+        return json.substring(0, json.length() - 1) + ",\"datasize\":";
     }
 
     /**
      * Given a query in json format {'iata': CODE, 'radius': km} extracts the requested airport information and
-     * return a list of matching atmosphere information.
+     * return a list of matching atmosphere information. Results for a non zero radius are cached.
      *
      * @param iata         the iataCode
      * @param radiusString the radius in km
-     * @return a list of atmospheric information
+     * @return a list of atmospheric information, must not be modified
      */
     public List<AtmosphericInformation> weather(String iata, String radiusString) {
-        double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
-        updateRequestFrequency(iata, radius);
-
+        double radius = parseRadius(radiusString);
         List<AtmosphericInformation> retval = new ArrayList<>();
-        retval.add(dataHolder.findAtmosphericInformation(iata));
+        int ordinal = dataHolder.findOrdinal(iata);
+        if (ordinal < 0) {
+            return retval;
+        }
+        updateRequestFrequency(ordinal, radius);
+
         if (radius == 0) {
+            retval.add(dataHolder.getAtmosphericInformation(ordinal));
             return retval;
-        } else {
-            AirportData ad = dataHolder.findAirportData(iata);
-            Collection<AirportData> airportDatas = dataHolder.getAirportDataMap();
-            airportDatas.stream().filter(data -> calculateDistance(ad, data) <= radius).forEach(data -> {
-                AtmosphericInformation ai = dataHolder.findAtmosphericInformation(data.getIata());
-                if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null
-                        || ai.getPressure() != null || ai.getTemperature() != null || ai.getWind() != null) {
-                    retval.add(ai);
-                }
-            });
         }
-        return retval;
+        return radiusQueryCache.get(ordinal, radius);
     }
 
+    /**
+     * Stream the atmospheric information of an airport and of the airports with data in the given radius, in the
+     * order of {@link #weather(String, String)}, as the spatial index produces them. Nothing is collected or cached.
+     *
+     * @param iata   the iataCode
+     * @param radius the radius in km
+     * @param action called for every matching record, the first one is the requested airport
+     */
+    public void streamWeather(String iata, double radius, Consumer<AtmosphericInformation> action) {
+        int ordinal = dataHolder.findOrdinal(iata);
+        if (ordinal < 0) {
+            return;
+        }
+        updateRequestFrequency(ordinal, radius);
+
+        action.accept(dataHolder.getAtmosphericInformation(ordinal));
+        dataHolder.forEachOrdinalWithin(ordinal, radius / R, nearby -> {
+            AtmosphericInformation ai = dataHolder.getAtmosphericInformation(nearby);
+            if (ai != null && ai.hasData()) {
+                action.accept(ai);
+            }
+        });
+    }
 
     /**
-     * Records information about how often requests are made
+     * Check whether a query is answered by {@link #streamWeather(String, double, Consumer)}
      *
-     * @param iata   an iata code
-     * @param radius query radius
+     * @param radius the radius in km
+     * @return true if the radius is at least {@link #STREAMING_RADIUS}
      */
-    public void updateRequestFrequency(String iata, Double radius) {
-        AirportData airportData = dataHolder.findAirportData(iata);
-        Map<AirportData, Integer> requestFrequency = dataHolder.getRequestFrequencyMap();
-        Map<Double, Integer> radiusFreq = dataHolder.getRadiusFreqMap();
+    public boolean isStreamed(double radius) {
+        return radius >= STREAMING_RADIUS;
+    }
 
-        requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-        radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0));
+    /**
+     * Parse the radius of a query
+     *
+     * @param radiusString the radius in km
+     * @return the radius, 0 if none is given
+     * @throws NumberFormatException if the radius is not a number
+     */
+    public static double parseRadius(String radiusString) {
+        return radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
+    }
+
+    /**
+     * Retrieve the recent data points of a type at an airport. Queries of the history are not counted in the request
+     * frequency.
+     *
+     * @param iata         the iataCode
+     * @param pointType    type of the data points
+     * @param from         start of the range in milliseconds since UTC epoch, inclusive
+     * @param to           end of the range in milliseconds since UTC epoch, exclusive
+     * @param bucketMillis length of the buckets the data points are combined into, 0 for every data point on its own
+     * @param aggregation  how the data points of a bucket are combined
+     * @return the capacity of the history and the data points or buckets as parallel arrays of the time, the mean,
+     * the quartiles, the number of data points and the sum of their counts, null if the airport is not known
+     */
+    public Map<String, Object> history(String iata, DataPointType pointType, long from, long to, long bucketMillis,
+                                       DataPointHistory.Aggregation aggregation) {
+        int ordinal = dataHolder.findOrdinal(iata);
+        if (ordinal < 0) {
+            return null;
+        }
+        DataPointHistory history = dataHolder.getHistory(ordinal, pointType);
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("iata", iata);
+        retval.put("pointType", pointType.name());
+        retval.put("capacity", history == null ? 0 : history.capacity());
+        retval.put("bucket", bucketMillis);
+        retval.put("aggregation", aggregation.name().toLowerCase(Locale.ROOT));
+        DataPointHistory.Series series = history == null ? DataPointHistory.Series.empty()
+                : history.query(from, to, bucketMillis, aggregation);
+        retval.put("time", series.time());
+        retval.put("value", series.value());
+        retval.put("first", series.first());
+        retval.put("second", series.second());
+        retval.put("third", series.third());
+        retval.put("count", series.count());
+        retval.put("samples", series.samples());
+        return retval;
+    }
+
+    /**
+     * Retrieve statistics of the query service
+     *
+     * @return size, hits, misses, coalesced misses and hit rate of the radius query cache, and the number of ping
+     * payload rebuilds
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("weather_cache", radiusQueryCache.getStats());
+        stats.put("ping_rebuilds", pingRebuilds.sum());
+        return stats;
+    }
+
+
+    /**
+     * Records information about how often requests are made. Only striped counters are incremented.
+     *
+     * @param ordinal ordinal of the requested airport
+     * @param radius  query radius
+     */
+    public void updateRequestFrequency(int ordinal, double radius) {
+        dataHolder.recordRequest(ordinal);
+        dataHolder.getRadiusHistogram().record(radius);
     }
 
 
@@ -139,12 +343,54 @@ public class WeatherQueryService {
      * @return the distance in KM
      */
     public double calculateDistance(AirportData ad1, AirportData ad2) {
-        double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
-        double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
+        double deltaLat = ad2.latitudeRadians() - ad1.latitudeRadians();
+        double deltaLon = ad2.longitudeRadians() - ad1.longitudeRadians();
         double a = Math.pow(Math.sin(deltaLat / 2), 2) + Math.pow(Math.sin(deltaLon / 2), 2)
-                * Math.cos(ad1.getLatitude()) * Math.cos(ad2.getLatitude());
+                * Math.cos(ad1.latitudeRadians()) * Math.cos(ad2.latitudeRadians());
         double c = 2 * Math.asin(Math.sqrt(a));
         return R * c;
     }
 
+    /**
+     * Queues a rebuild of the ping payload once enough airports were added or removed. Add and remove callbacks run
+     * while the holder is locked, so they only count and a batch is picked up once the lock is released.
+     */
+    private final class PingInvalidator implements AirportDataListener {
+
+        @Override
+        public void airportAdded(int ordinal, AirportData data) {
+            catalogChanges.incrementAndGet();
+        }
+
+        @Override
+        public void airportRemoved(int ordinal, AirportData data) {
+            catalogChanges.incrementAndGet();
+        }
+
+        @Override
+        public void writeLockReleased() {
+            PingPayload payload = pingPayload;
+            if (payload != null && catalogChanges.get() - payload.catalogChanges >= PING_MAX_MODIFICATIONS
+                    && pingRebuildQueued.compareAndSet(false, true)) {
+                pingRefresher.execute(() -> {
+                    // cleared first, so a change made during the rebuild queues another one
+                    pingRebuildQueued.set(false);
+                    refreshPing(true);
+                });
+            }
+        }
+    }
+
+    /**
+     * encoded ping JSON up to the data size, and the number of airports added or removed before it was built
+     */
+    private static final class PingPayload {
+        final byte[] prefix;
+        final long catalogChanges;
+
+        PingPayload(byte[] prefix, long catalogChanges) {
+            this.prefix = prefix;
+            this.catalogChanges = catalogChanges;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AirportCatalogParserTest {
+
+    @Test
+    public void testFields() throws Exception {
+        List<String> rows = parse("1,\"General Edward Lawrence Logan Intl\",\"Boston\",\"United States\",\"BOS\"," +
+                "\"KBOS\",42.364347,-71.005181,19,-5,\"A\"\r\n" +
+                "2,\"Tokyo, Haneda\",\"Ota, Tokyo\",\"Japan\",HND,RJTT,35.55,139.78\n" +
+                "\n" +
+                "3,\"The \"\"Big\"\" One\",X,Y,BIG,ABCD,+1.5e1,-0\r\n" +
+                "4,\"No Code\",X,Y,\\N,ABCD,10,10,0,0,U\n" +
+                "5,\"Too North\",X,Y,TNO,ABCD,91,10\n" +
+                "6,\"Short\",X,Y,SHO,ABCD,10\n" +
+                "7,\"Unterminated,X,Y,UNT,ABCD,10,10\n" +
+                "8,Trailing,X,Y,TRA,ABCD,1.,-.5,");
+        assertEquals("1 BOS 42.364347 -71.005181 Boston/United States", rows.get(0));
+        assertEquals("2 HND 35.55 139.78 Ota, Tokyo/Japan", rows.get(1));
+        assertEquals("4 BIG 15.0 -0.0 X/Y", rows.get(2));
+        assertEquals("5 invalid", rows.get(3));
+        assertEquals("6 invalid", rows.get(4));
+        assertEquals("7 invalid", rows.get(5));
+        assertEquals("8 invalid", rows.get(6));
+        assertEquals("9 TRA 1.0 -0.5 X/Y", rows.get(7));
+        assertEquals(8, rows.size());
+    }
+
+    @Test
+    public void testQuotedText() throws Exception {
+        List<String> cities = new ArrayList<>();
+        AirportCatalogParser.parse(stream("1,a,\"Say \"\"cheese\"\"\",\"Z\u00fcrich\"\n1,a"), row -> {
+            cities.add(row.city());
+            cities.add(row.country());
+        });
+        assertEquals("Say \"cheese\"", cities.get(0));
+        assertEquals("Z\u00fcrich", cities.get(1));
+        assertNull(cities.get(3));
+    }
+
+    @Test
+    public void testUnquotedTextKeepsQuotes() throws Exception {
+        List<String> cities = new ArrayList<>();
+        AirportCatalogParser.parse(stream("1,a,Say \"\"cheese\"\",\"\"\"\"\n"), row -> {
+            cities.add(row.city());
+            cities.add(row.country());
+        });
+        assertEquals("Say \"\"cheese\"\"", cities.get(0));
+        assertEquals("\"", cities.get(1));
+    }
+
+    @Test
+    public void testNumbers() {
+        String[] numbers = {"0", "-0.0", "42.364347", "-71.005181", "179.999999999999", "0.1234567890123456789",
+                "1234567890123456789", "1e3", "-.5", "5.", "", "-", ".", "1.2.3", "12a", "NaN"};
+        for (String number : numbers) {
+            byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+            double expected;
+            try {
+                expected = number.isEmpty() ? Double.NaN : Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                expected = Double.NaN;
+            }
+            assertEquals(number, expected, AirportCatalogParser.parseNumber(ByteBuffer.wrap(bytes), 0,
+                    bytes.length), 0);
+        }
+    }
+
+    @Test
+    public void testLargeSyntheticCatalog() throws Exception {
+        Random random = new Random(7);
+        StringBuilder catalog = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        int lines = 200000;
+        for (int i = 1; i <= lines; i++) {
+            String iata = "" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26))
+                    + (char) ('A' + random.nextInt(26));
+            String latitude = String.format("%.6f", random.nextDouble() * 180 - 90);
+            String longitude = Double.toString(random.nextDouble() * 360 - 180);
+            boolean quoted = random.nextBoolean();
+            catalog.append(i).append(",\"Airport, ").append(i).append("\",\"City ").append(i).append("\",Country,")
+                    .append(quoted ? "\"" + iata + "\"" : iata).append(",ICAO,").append(latitude).append(',')
+                    .append(longitude).append(",0,0,\"U\"").append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+            expected.add(i + " " + iata + " " + Double.parseDouble(latitude) + " " + Double.parseDouble(longitude)
+                    + " City " + i + "/Country");
+        }
+        byte[] bytes = catalog.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("airports", ".dat");
+        try {
+            Files.write(file, bytes);
+            List<String> mapped = new ArrayList<>();
+            // small regions, so that lines straddle region borders
+            assertEquals(lines, AirportCatalogParser.parse(file, row -> mapped.add(describe(row)), 4096));
+            assertEquals(expected, mapped);
+            List<String> whole = new ArrayList<>();
+            assertEquals(lines, AirportCatalogParser.parse(file, row -> whole.add(describe(row))));
+            assertEquals(expected, whole);
+        } finally {
+            Files.delete(file);
+        }
+        // a stream delivering a few bytes at a time
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(300)));
+            }
+        };
+        List<String> streamed = new ArrayList<>();
+        assertEquals(lines, AirportCatalogParser.parse(trickle, row -> streamed.add(describe(row))));
+        assertEquals(expected, streamed);
+    }
+
+    private static List<String> parse(String catalog) throws IOException {
+        List<String> rows = new ArrayList<>();
+        AirportCatalogParser.parse(stream(catalog), row -> rows.add(describe(row)));
+        return rows;
+    }
+
+    private static String describe(AirportCatalogParser.Row row) {
+        AirportData airport = row.toAirportData();
+        if (airport == null) {
+            return row.lineNumber() + " invalid";
+        }
+        return row.lineNumber() + " " + airport.getIata() + " " + airport.getLatitude() + " " + airport.getLongitude()
+                + " " + row.city() + "/" + row.country();
+    }
+
+    private static InputStream stream(String catalog) {
+        return new ByteArrayInputStream(catalog.getBytes(StandardCharsets.UTF_8));
+    }
+}
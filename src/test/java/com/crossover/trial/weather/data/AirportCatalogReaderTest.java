@@ -0,0 +1,50 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AirportCatalogReaderTest {
+
+    @Test
+    public void testJsonLine() {
+        AirportData lhr = AirportCatalogReader.parseJsonLine("{\"iata\":\"LHR\",\"latitude\":51.4775," +
+                "\"longitude\":\"-0.461389\",\"name\":\"Heathrow\"}");
+        assertEquals(-0.461389, lhr.getLongitude(), 0);
+        assertNull(AirportCatalogReader.parseJsonLine("{\"iata\":\"LHR\",\"latitude\":51.4775}"));
+        assertNull(AirportCatalogReader.parseJsonLine("[1,2]"));
+        assertNull(AirportCatalogReader.parseJsonLine("{\"iata\":"));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        String catalog = "{\"iata\":\"AAA\",\"latitude\":1,\"longitude\":2}\n\n" +
+                "{\"iata\":\"BBB\",\"latitude\":1}\r\n{\"iata\":\"CCC\",\"latitude\":3,\"longitude\":4}";
+        List<String> airports = new ArrayList<>();
+        List<Integer> invalid = new ArrayList<>();
+        AirportCatalogReader.read(new ByteArrayInputStream(catalog.getBytes(StandardCharsets.UTF_8)),
+                AirportCatalogReader.Format.NDJSON, airport -> airports.add(airport.getIata()), invalid::add);
+        assertEquals(Arrays.asList("AAA", "CCC"), airports);
+        assertEquals(Arrays.asList(3), invalid);
+    }
+
+    @Test
+    public void testReadCsv() throws Exception {
+        String catalog = "1,\"Logan\",\"Boston\",\"United States\",\"BOS\",\"KBOS\",42.364347,-71.005181,19,-5,\"A\"\n" +
+                "2,\"No Code\",X,Y,\\N,ABCD,10,10,0,0,U\n\n" +
+                "3,\"Tokyo, Haneda\",Tokyo,Japan,HND,RJTT,35.55,139.78";
+        List<String> airports = new ArrayList<>();
+        List<Integer> invalid = new ArrayList<>();
+        AirportCatalogReader.read(new ByteArrayInputStream(catalog.getBytes(StandardCharsets.UTF_8)),
+                AirportCatalogReader.Format.CSV, airport -> airports.add(airport.getIata()), invalid::add);
+        assertEquals(Arrays.asList("BOS", "HND"), airports);
+        assertEquals(Arrays.asList(2), invalid);
+    }
+}
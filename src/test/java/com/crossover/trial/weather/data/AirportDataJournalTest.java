@@ -0,0 +1,163 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AirportDataJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testRecoverSnapshotAndLog() throws IOException {
+        AirportDataHolder original = new AirportDataHolder();
+        AirportDataJournal journal = AirportDataJournal.open(directory, original);
+        original.addAirportData("BOS", new AirportData("BOS", 42.364347, -71.005181));
+        List<AirportData> batch = new ArrayList<>();
+        batch.add(new AirportData("JFK", 40.639751, -73.778925));
+        batch.add(new AirportData("EWR", 40.6925, -74.168667));
+        batch.add(new AirportData("LHR", 51.4775, -0.461389));
+        original.addAllAirportData(batch);
+        update(original, "BOS", DataPointType.WIND, 10);
+        update(original, "BOS", DataPointType.HUMIDTY, 50);
+        update(original, "JFK", DataPointType.PRESSURE, 700);
+        original.removeAirportData("EWR");
+
+        journal.snapshot();
+        update(original, "BOS", DataPointType.WIND, 20);
+        update(original, "LHR", DataPointType.TEMPERATURE, -5.5);
+        original.addAirportData("EWR", new AirportData("EWR", 40.6925, -74.168667));
+        original.removeAirportData("JFK");
+        journal.flush();
+
+        // recover without closing, as after a crash
+        assertEquals(describe(original), describe(recover()));
+
+        // a torn write at the end of the log is ignored
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("wal-")).max(Path::compareTo)
+                    .get();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 30, 1, 2, 3}, StandardOpenOption.APPEND);
+        assertEquals(describe(original), describe(recover()));
+    }
+
+    @Test
+    public void testRecoverLargeCatalog() throws IOException {
+        AirportDataHolder original = new AirportDataHolder();
+        AirportDataJournal journal = AirportDataJournal.open(directory, original);
+        List<AirportData> batch = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            String iata = "" + (char) (33 + i % 94) + (char) (33 + i / 94 % 94) + (char) (33 + i / 94 / 94);
+            batch.add(new AirportData(iata, (i % 1800) / 10.0 - 90, (i % 3600) / 10.0 - 180));
+        }
+        original.addAllAirportData(batch);
+        for (int i = 0; i < batch.size(); i += 3) {
+            update(original, batch.get(i).getIata(), DataPointType.values()[i % 6], 50);
+        }
+        journal.snapshot();
+        for (int i = 0; i < 1000; i++) {
+            update(original, batch.get(i).getIata(), DataPointType.WIND, i);
+        }
+        journal.flush();
+
+        long start = System.nanoTime();
+        AirportDataHolder recovered = recover();
+        System.out.println("Recovered 100000 airports in " + (System.nanoTime() - start) / 1000000 + " ms");
+        Map<String, String> expected = describe(original);
+        assertEquals(100000, expected.size());
+        assertEquals(expected, describe(recovered));
+    }
+
+    @Test
+    public void testSyncMutationsAreDurable() throws IOException {
+        AirportDataHolder original = new AirportDataHolder();
+        AirportDataJournal.open(directory, original, true);
+        List<AirportData> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String iata = "" + (char) (65 + i % 26) + (char) (65 + i / 26 % 26) + (char) (48 + i / 676);
+            batch.add(new AirportData(iata, i / 20.0, i / 10.0));
+        }
+        original.addAllAirportData(batch);
+        original.addAirportData("BOS", new AirportData("BOS", 42.364347, -71.005181));
+        original.removeAirportData("AA0");
+        update(original, "BOS", DataPointType.WIND, 10);
+
+        // every mutation returned once its record was on disk, so nothing has to be flushed
+        assertEquals(describe(original), describe(recover()));
+    }
+
+    @Test
+    public void testLateUpdateOfRemovedAirportNotLogged() throws IOException {
+        AirportDataHolder original = new AirportDataHolder();
+        AirportDataJournal journal = AirportDataJournal.open(directory, original);
+        original.addAirportData("BOS", new AirportData("BOS", 42.364347, -71.005181));
+        int ordinal = original.findOrdinal("BOS");
+        AirportData removed = original.getAirportData(ordinal);
+        AtmosphericInformation late = original.getAtmosphericInformation(ordinal)
+                .withDataPoint(DataPointType.WIND, new DataPoint(10, 1, 2, 3, 7), 1000);
+        original.removeAirportData("BOS");
+        original.addAirportData("BOS", new AirportData("BOS", 42.364347, -71.005181));
+
+        // the listener of an update swapped in just before the removal runs after it
+        journal.atmosphericInformationUpdated(ordinal, removed, late);
+        journal.flush();
+        assertEquals(describe(original), describe(recover()));
+    }
+
+    private AirportDataHolder recover() throws IOException {
+        AirportDataHolder recovered = new AirportDataHolder();
+        AirportDataJournal.open(directory, recovered);
+        return recovered;
+    }
+
+    private static void update(AirportDataHolder holder, String iata, DataPointType type, double mean) {
+        DataPoint dp = new DataPoint.Builder().withFirst(1).withLast(3).withCount(7).build();
+        dp.setMean(mean);
+        assertTrue(holder.updateAtmosphericInformation(iata, current -> current.withDataPoint(type, dp, 1000)));
+    }
+
+    /**
+     * every airport with its coordinates, record version and JSON representation
+     */
+    private static Map<String, String> describe(AirportDataHolder holder) {
+        Map<String, String> airports = new TreeMap<>();
+        holder.forEachOrdinal(ordinal -> {
+            AirportData airport = holder.getAirportData(ordinal);
+            AtmosphericInformation ai = holder.getAtmosphericInformation(ordinal);
+            airports.put(airport.getIata(), airport.getLatitude() + " " + airport.getLongitude() + " " +
+                    ai.version() + " " + new String(ai.jsonBytes()));
+        });
+        return airports;
+    }
+}
@@ -0,0 +1,122 @@
+package com.crossover.trial.weather.data;
+
+import com.crossover.trial.weather.service.WeatherQueryService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AirportSpatialIndexTest {
+
+    private static final double[] RADII = {0.5, 10, 200, 1000, 5000, 15000, 25000};
+
+    private WeatherQueryService queryService = WeatherQueryService.getInstance();
+
+    private AirportSpatialIndex index;
+
+    private List<AirportData> airports;
+
+    @Before
+    public void setUp() {
+        index = new AirportSpatialIndex();
+        airports = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            airports.add(new AirportData("A" + i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+        }
+        // corner cases: poles, antimeridian and cell borders
+        airports.add(new AirportData("NPL", 90, 0));
+        airports.add(new AirportData("SPL", -90, 45));
+        airports.add(new AirportData("AM1", 10, 180));
+        airports.add(new AirportData("AM2", 10, -179.9));
+        airports.add(new AirportData("AM3", -10.5, 179.99));
+        airports.add(new AirportData("BRD", 41, -74));
+        for (int ordinal = 0; ordinal < airports.size(); ordinal++) {
+            index.add(ordinal, airports.get(ordinal));
+        }
+    }
+
+    @Test
+    public void testCandidatesMatchLinearScan() {
+        for (AirportData center : airports.subList(airports.size() - 60, airports.size())) {
+            for (double radius : RADII) {
+                assertEquals("Radius " + radius + " around " + center.getIata(),
+                        linearScan(center, radius), indexScan(center, radius));
+            }
+        }
+    }
+
+    @Test
+    public void testQueryWhileChunksGrow() throws InterruptedException {
+        AirportDataHolder holder = new AirportDataHolder();
+        holder.addAirportData("CTR", new AirportData("CTR", 0, 0));
+        int center = holder.findOrdinal("CTR");
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 8 * AirportChunk.SIZE; i++) {
+                String iata = "" + (char) (65 + i % 26) + (char) (65 + i / 26 % 26) + (char) (48 + i / 676);
+                holder.addAirportData(iata, new AirportData(iata, (i % 100) / 100.0, (i / 100) / 100.0));
+            }
+        });
+        writer.start();
+        int found = 0;
+        while (writer.isAlive()) {
+            int[] count = new int[1];
+            holder.forEachOrdinalWithin(center, 500 / WeatherQueryService.R, ordinal -> count[0]++);
+            found = Math.max(found, count[0]);
+        }
+        writer.join();
+        assertTrue(found >= 1);
+    }
+
+    @Test
+    public void testRemove() {
+        AirportData removed = airports.get(airports.size() - 1);
+        index.remove(airports.size() - 1, removed);
+
+        Set<String> result = indexScan(removed, 1000);
+        assertTrue(!result.contains(removed.getIata()));
+        assertEquals(linearScan(removed, 1000).size() - 1, result.size());
+    }
+
+    @Test
+    public void testAddAllMatchesAdd() {
+        AirportSpatialIndex bulk = new AirportSpatialIndex();
+        int[] ordinals = new int[airports.size()];
+        for (int ordinal = 0; ordinal < ordinals.length; ordinal++) {
+            ordinals[ordinal] = ordinal;
+        }
+        // two batches, so cells filled by the first one are grown by the second
+        int half = airports.size() / 2;
+        AirportData[] data = airports.toArray(new AirportData[0]);
+        bulk.addAll(ordinals, data, half);
+        bulk.addAll(Arrays.copyOfRange(ordinals, half, ordinals.length),
+                Arrays.copyOfRange(data, half, data.length), data.length - half);
+        index = bulk;
+        for (AirportData center : airports.subList(airports.size() - 60, airports.size())) {
+            assertEquals(linearScan(center, 1000), indexScan(center, 1000));
+        }
+    }
+
+    private Set<String> linearScan(AirportData center, double radius) {
+        Set<String> result = new TreeSet<>();
+        airports.stream()
+                .filter(data -> queryService.calculateDistance(center, data) <= radius)
+                .forEach(data -> result.add(data.getIata()));
+        return result;
+    }
+
+    private Set<String> indexScan(AirportData center, double radius) {
+        Set<String> result = new TreeSet<>();
+        double maxSquaredChord = AirportData.squaredChord(radius / WeatherQueryService.R);
+        index.forEachCandidate(center, radius / WeatherQueryService.R, ordinal -> {
+            AirportData data = airports.get(ordinal);
+            if (center.squaredChordTo(data) <= maxSquaredChord) {
+                result.add(data.getIata());
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package com.crossover.trial.weather.data;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AtmosphericInformationTest {
+
+    @Test
+    public void testJsonContract() {
+        DataPoint wind = new DataPoint(22, 10, 20, 30, 10);
+        AtmosphericInformation ai = new AtmosphericInformation()
+                .withDataPoint(DataPointType.WIND, wind, 1234)
+                .withDataPoint(DataPointType.HUMIDTY, new DataPoint(-0.5, -1, 0, Integer.MAX_VALUE, 1), 5678);
+
+        assertEquals("{\"temperature\":null,\"wind\":{\"mean\":22.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}," +
+                        "\"humidity\":{\"mean\":-0.5,\"first\":-1,\"second\":0,\"third\":2147483647,\"count\":1}," +
+                        "\"precipitation\":null,\"pressure\":null,\"cloudCover\":null,\"lastUpdateTime\":5678}",
+                new String(ai.jsonBytes(), StandardCharsets.UTF_8));
+
+        AtmosphericInformation read = new Gson().fromJson(new String(ai.jsonBytes(), StandardCharsets.UTF_8),
+                AtmosphericInformation.class);
+        assertEquals(wind, read.getWind());
+        assertEquals(ai.getHumidity(), read.getHumidity());
+        assertNull(read.getTemperature());
+        assertEquals(5678, read.getLastUpdateTime());
+    }
+
+    @Test
+    public void testResolvePointType() {
+        for (DataPointType type : DataPointType.values()) {
+            assertSame(type, DataPointType.resolve(type.name().toLowerCase()));
+            assertSame(type, DataPointType.resolve(type.name()));
+        }
+        assertSame(DataPointType.CLOUDCOVER, DataPointType.resolve("cloudCover"));
+        assertNull(DataPointType.resolve("humidity"));
+        assertNull(DataPointType.resolve("air"));
+        assertNull(DataPointType.resolve(null));
+    }
+}
@@ -0,0 +1,54 @@
+package com.crossover.trial.weather.data;
+
+import java.util.Random;
+
+/**
+ * Measures the compression of sealed history blocks and how fast queries decode them. Not a unit test, run it with
+ * the test classpath:
+ * <pre>
+ * java -cp target/test-classes:target/classes com.crossover.trial.weather.data.DataPointHistoryBenchmark [readings]
+ * </pre>
+ * Readings arrive about once a minute, with jitter, and follow a random walk with a resolution of 0.1, as a
+ * temperature sensor would report them.
+ *
+ * @author code test administrator
+ */
+public class DataPointHistoryBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int readings = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        DataPointHistory history = new DataPointHistory(CAPACITY, readings / CAPACITY);
+        Random random = new Random(42);
+        long time = System.currentTimeMillis() - readings * 60000L;
+        double temperature = 15;
+        int count = 20;
+        for (int i = 0; i < readings; i++) {
+            time += 55000 + random.nextInt(10000);
+            temperature = Math.round((temperature + random.nextGaussian() * 0.3) * 10) / 10.0;
+            count = Math.max(1, count + random.nextInt(3) - 1);
+            int spread = 1 + random.nextInt(3);
+            history.record(time, new DataPoint(temperature, (int) temperature - spread, (int) temperature,
+                    (int) temperature + spread, count));
+        }
+        long sealed = history.sealedDataPoints();
+        System.out.printf("%d readings, %d sealed in %d bytes, %.2f bytes per reading, %d bytes uncompressed%n",
+                readings, sealed, history.sealedBytes(), (double) history.sealedBytes() / sealed,
+                2 * Long.BYTES + 4 * Integer.BYTES);
+
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            DataPointHistory.Series series = history.query(Long.MIN_VALUE, Long.MAX_VALUE, 0,
+                    DataPointHistory.Aggregation.MEAN);
+            long nanos = System.nanoTime() - start;
+            checksum += series.time().length;
+            System.out.printf("round %d: decoded %d readings in %.1f ms, %.1f M readings/s%n", round,
+                    series.time().length, nanos / 1e6, series.time().length * 1e3 / nanos);
+        }
+        System.out.println("checksum " + checksum);
+    }
+}
@@ -0,0 +1,134 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DataPointHistoryTest {
+
+    @Test
+    public void testOldestOverwritten() {
+        DataPointHistory history = new DataPointHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.record(1000 + i, point(i));
+        }
+        DataPointHistory.Series series = history.query(Long.MIN_VALUE, Long.MAX_VALUE, 0,
+                DataPointHistory.Aggregation.MEAN);
+        assertArrayEquals(new long[]{1006, 1007, 1008, 1009}, series.time());
+        assertArrayEquals(new double[]{6, 7, 8, 9}, series.value(), 0);
+        assertArrayEquals(new int[]{1, 1, 1, 1}, series.count());
+
+        series = history.query(1007, 1009, 0, DataPointHistory.Aggregation.MEAN);
+        assertArrayEquals(new long[]{1007, 1008}, series.time());
+        assertEquals(0, history.query(0, 1006, 0, DataPointHistory.Aggregation.MEAN).time().length);
+    }
+
+    @Test
+    public void testBuckets() {
+        DataPointHistory history = new DataPointHistory(16);
+        // two buckets of 100 ms, with a gap
+        double[] means = {5, 1, 3, 10, 20};
+        long[] times = {1010, 1050, 1099, 1300, 1350};
+        for (int i = 0; i < means.length; i++) {
+            history.record(times[i], point(means[i]));
+        }
+        DataPointHistory.Series mean = history.query(0, Long.MAX_VALUE, 100, DataPointHistory.Aggregation.MEAN);
+        assertArrayEquals(new long[]{1000, 1300}, mean.time());
+        assertArrayEquals(new double[]{3, 15}, mean.value(), 1e-9);
+        assertArrayEquals(new int[]{3, 2}, mean.count());
+        assertArrayEquals(new double[]{1, 10},
+                history.query(0, Long.MAX_VALUE, 100, DataPointHistory.Aggregation.MIN).value(), 0);
+        assertArrayEquals(new double[]{5, 20},
+                history.query(0, Long.MAX_VALUE, 100, DataPointHistory.Aggregation.MAX).value(), 0);
+    }
+
+    @Test
+    public void testTimesNeverDecrease() {
+        DataPointHistory history = new DataPointHistory(4);
+        history.record(2000, point(1));
+        history.record(1999, point(2));
+        assertArrayEquals(new long[]{2000, 2000},
+                history.query(0, Long.MAX_VALUE, 0, DataPointHistory.Aggregation.MEAN).time());
+    }
+
+    @Test
+    public void testHolderHistory() {
+        AirportDataHolder holder = new AirportDataHolder(8, 0);
+        holder.addAirportData("HS1", new AirportData("HS1", 10, 10));
+        holder.recordHistory("HS1", DataPointType.WIND, 1000, point(12));
+        holder.recordHistory("HS2", DataPointType.WIND, 1000, point(12));
+        int ordinal = holder.findOrdinal("HS1");
+        assertEquals(8, holder.getHistory(ordinal, DataPointType.WIND).capacity());
+        assertArrayEquals(new double[]{12}, holder.getHistory(ordinal, DataPointType.WIND)
+                .query(0, Long.MAX_VALUE, 0, DataPointHistory.Aggregation.MEAN).value(), 0);
+        assertEquals(0, holder.getHistory(ordinal, DataPointType.HUMIDTY)
+                .query(0, Long.MAX_VALUE, 0, DataPointHistory.Aggregation.MEAN).value().length);
+
+        holder.removeAirportData("HS1");
+        assertNull(holder.getHistory(ordinal, DataPointType.WIND));
+    }
+
+    @Test
+    public void testHolderUpdatesInVersionOrder() throws Exception {
+        AirportDataHolder holder = new AirportDataHolder(4096, 0);
+        holder.addAirportData("HS3", new AirportData("HS3", 10, 10));
+        // an ignored data point is not recorded
+        assertTrue(holder.updateAtmosphericInformation("HS3", DataPointType.WIND, current -> current));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 500; k++) {
+                    long time = 1000 + k;
+                    holder.updateAtmosphericInformation("HS3", DataPointType.WIND, current -> current
+                            .withDataPoint(DataPointType.WIND, point(current.version() + 1), time));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double[] means = holder.getHistory(holder.findOrdinal("HS3"), DataPointType.WIND)
+                .query(0, Long.MAX_VALUE, 0, DataPointHistory.Aggregation.MEAN).value();
+        assertEquals(2000, means.length);
+        for (int k = 0; k < means.length; k++) {
+            assertEquals(k + 1, means[k], 0);
+        }
+    }
+
+    @Test
+    public void testSealedBlocks() {
+        DataPointHistory history = new DataPointHistory(8, 3);
+        for (int i = 0; i < 40; i++) {
+            history.record(60000L * i, new DataPoint(20 + i * 0.1, i, 2 * i, 3 * i, 100 - i));
+        }
+        // 3 sealed blocks of 8 data points, the first 2 blocks were dropped, and 8 in the ring
+        assertEquals(24, history.sealedDataPoints());
+        DataPointHistory.Series series = history.query(Long.MIN_VALUE, Long.MAX_VALUE, 0,
+                DataPointHistory.Aggregation.MEAN);
+        assertEquals(32, series.time().length);
+        for (int k = 0; k < 32; k++) {
+            int i = k + 8;
+            assertEquals(60000L * i, series.time()[k]);
+            assertEquals(20 + i * 0.1, series.value()[k], 0);
+            assertEquals(i, series.first()[k], 0);
+            assertEquals(2 * i, series.second()[k], 0);
+            assertEquals(3 * i, series.third()[k], 0);
+            assertEquals(100 - i, series.samples()[k]);
+        }
+
+        // a range across a block and the ring, in buckets of 10 minutes
+        series = history.query(60000L * 27, 60000L * 35, 600000, DataPointHistory.Aggregation.MAX);
+        assertArrayEquals(new long[]{1200000, 1800000}, series.time());
+        assertArrayEquals(new double[]{20 + 29 * 0.1, 20 + 34 * 0.1}, series.value(), 0);
+        assertArrayEquals(new int[]{3, 5}, series.count());
+        assertArrayEquals(new long[]{73 + 72 + 71, 70 + 69 + 68 + 67 + 66}, series.samples());
+    }
+
+    private static DataPoint point(double mean) {
+        return new DataPoint(mean, 0, 0, 0, 1);
+    }
+}
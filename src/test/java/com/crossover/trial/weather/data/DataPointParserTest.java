@@ -0,0 +1,69 @@
+package com.crossover.trial.weather.data;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DataPointParserTest {
+
+    private Gson gson = new Gson();
+
+    @Test
+    public void testMatchesGson() throws Exception {
+        String[] inputs = {
+                "{\"mean\":22.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+                " { \"count\" : 4 , \"mean\" : -0.125e1 }\n",
+                "{\"mean\":0.1,\"first\":\"7\",\"third\":null,\"unknown\":{\"a\":[1,true,\"}\"]}}",
+                "{\"mean\":12345678901234567890.5,\"second\":1e2}",
+                "{\"mean\":3.141592653589793238,\"first\":-2147483648}",
+                "{}"
+        };
+        for (String input : inputs) {
+            byte[] json = input.getBytes(StandardCharsets.UTF_8);
+            DataPoint expected = gson.fromJson(input, DataPoint.class);
+            assertEquals(input, expected, DataPointParser.get().parse(json, 0, json.length));
+            assertEquals(input, expected, DataPointParser.get().parse(new ByteArrayInputStream(json)));
+        }
+    }
+
+    @Test
+    public void testRejectsMalformed() {
+        String[] inputs = {
+                "", "null", "[]", "{", "{\"mean\":}", "{\"mean\":1,}", "{\"mean\":1} x", "{\"first\":1.5}",
+                "{\"count\":3000000000}", "{\"mean\":01}", "{\"mean\":1.}", "{\"mean\":\"abc\"}", "{mean:1}"
+        };
+        for (String input : inputs) {
+            byte[] json = input.getBytes(StandardCharsets.UTF_8);
+            assertNull(input, DataPointParser.get().parse(json, 0, json.length));
+        }
+    }
+
+    @Test
+    public void testParseReadings() throws Exception {
+        String input = "[{\"iata\":\"BOS\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":22.0,\"count\":10}}," +
+                " {\"dataPoint\":null,\"pointType\":\"\\u0068umidty\",\"extra\":[1,2],\"iata\":\"JFK\"}, {}]";
+        List<WeatherReading> readings = DataPointParser.get().parseReadings(stream(input));
+        assertEquals(3, readings.size());
+        assertEquals("BOS", readings.get(0).getIata());
+        assertEquals("wind", readings.get(0).getPointType());
+        assertEquals(new DataPoint(22, 0, 0, 0, 10), readings.get(0).getDataPoint());
+        assertEquals("JFK", readings.get(1).getIata());
+        assertEquals("humidty", readings.get(1).getPointType());
+        assertNull(readings.get(1).getDataPoint());
+        assertNull(readings.get(2).getIata());
+
+        assertEquals(0, DataPointParser.get().parseReadings(stream(" [ ] ")).size());
+        assertNull(DataPointParser.get().parseReadings(stream("[{\"iata\":\"BOS\"}")));
+        assertNull(DataPointParser.get().parseReadings(stream("{\"iata\":\"BOS\"}")));
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
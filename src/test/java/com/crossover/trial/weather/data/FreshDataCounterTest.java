@@ -0,0 +1,47 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FreshDataCounterTest {
+
+    private static final long DAY = 86400000;
+
+    @Test
+    public void testExpiresAfterWindow() {
+        FreshDataCounter counter = new FreshDataCounter(DAY, 1000);
+        long start = 1_450_000_000_000L;
+        counter.update(0, start);
+        counter.update(0, start + 5000);
+        assertEquals(2, counter.count(start + 5000));
+
+        assertEquals(2, counter.count(start + DAY - 1));
+        assertEquals(1, counter.count(start + DAY + 1000));
+        assertEquals(0, counter.count(start + DAY + 6000));
+    }
+
+    @Test
+    public void testUpdateMovesAirport() {
+        FreshDataCounter counter = new FreshDataCounter(DAY, 1000);
+        long start = 1_450_000_000_000L;
+        counter.update(0, start);
+        counter.update(start, start + DAY - 1000);
+        assertEquals(1, counter.count(start + DAY + 1000));
+
+        counter.remove(start + DAY - 1000);
+        assertEquals(0, counter.count(start + DAY + 1000));
+    }
+
+    @Test
+    public void testIdleLongerThanWindow() {
+        FreshDataCounter counter = new FreshDataCounter(DAY, 1000);
+        long start = 1_450_000_000_000L;
+        counter.update(0, start);
+        assertEquals(0, counter.count(start + 10 * DAY));
+
+        // an expired reading is no longer part of the count, replacing it must not go negative
+        counter.update(start, start + 10 * DAY);
+        assertEquals(1, counter.count(start + 10 * DAY));
+    }
+}
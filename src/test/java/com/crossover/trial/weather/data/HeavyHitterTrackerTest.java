@@ -0,0 +1,83 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHitterTrackerTest {
+
+    @Test
+    public void testExactWhileTableHasRoom() {
+        HeavyHitterTracker tracker = new HeavyHitterTracker(8, 64);
+        for (int key = 0; key < 8; key++) {
+            for (int i = 0; i <= key; i++) {
+                tracker.record(key);
+            }
+        }
+        for (int key = 0; key < 8; key++) {
+            assertTrue(tracker.isTracked(key));
+            assertEquals(key + 1, tracker.estimate(key));
+        }
+    }
+
+    @Test
+    public void testHeavyHittersUnderSkew() {
+        HeavyHitterTracker tracker = new HeavyHitterTracker(10, 256);
+        Map<Integer, Long> actual = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200000; i++) {
+            // five hubs take half of the queries, the rest is spread over 5000 airports
+            int key = random.nextBoolean() ? random.nextInt(5) : 5 + random.nextInt(5000);
+            tracker.record(key);
+            actual.merge(key, 1L, Long::sum);
+        }
+        for (Map.Entry<Integer, Long> entry : actual.entrySet()) {
+            assertTrue(tracker.estimate(entry.getKey()) >= entry.getValue());
+        }
+        for (int hub = 0; hub < 5; hub++) {
+            assertTrue(tracker.isTracked(hub));
+            double error = tracker.estimate(hub) - actual.get(hub);
+            assertTrue("hub " + hub + " off by " + error, error <= 0.01 * actual.get(hub));
+        }
+    }
+
+    @Test
+    public void testNoCountLostUnderConcurrentEviction() throws Exception {
+        // a table of two with eight equally hot keys keeps evicting entries while they are incremented
+        HeavyHitterTracker tracker = new HeavyHitterTracker(2, 1024);
+        AtomicLongArray actual = new AtomicLongArray(8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] workers = new Future<?>[4];
+            for (int t = 0; t < workers.length; t++) {
+                int seed = t;
+                workers[t] = executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        int key = random.nextInt(8);
+                        tracker.record(key);
+                        actual.incrementAndGet(key);
+                    }
+                });
+            }
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int key = 0; key < 8; key++) {
+            assertTrue("key " + key, tracker.estimate(key) >= actual.get(key));
+        }
+    }
+}
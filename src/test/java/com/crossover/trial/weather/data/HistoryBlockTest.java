@@ -0,0 +1,68 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryBlockTest {
+
+    @Test
+    public void testRoundTrip() {
+        int size = 1000;
+        long[] times = new long[size];
+        double[] means = new double[size];
+        int[] firsts = new int[size];
+        int[] seconds = new int[size];
+        int[] thirds = new int[size];
+        int[] counts = new int[size];
+        Random random = new Random(7);
+        long time = 1476662400000L;
+        for (int i = 0; i < size; i++) {
+            // mostly steady, with jitter, repeats and the occasional huge gap
+            time += i % 100 == 99 ? 86400000L * 365 : i % 3 == 0 ? 60000 : 60000 + random.nextInt(5000);
+            times[i] = time;
+            means[i] = i % 5 == 0 && i > 0 ? means[i - 1] : i % 7 == 0 ? -random.nextDouble() * 1e300
+                    : Math.round(random.nextGaussian() * 100) / 10.0;
+            firsts[i] = i % 11 == 0 ? Integer.MIN_VALUE : random.nextInt(100);
+            seconds[i] = i % 13 == 0 ? Integer.MAX_VALUE : random.nextInt(5000) - 2500;
+            thirds[i] = random.nextInt();
+            counts[i] = i / 10;
+        }
+        HistoryBlock block = HistoryBlock.encode(times, means, firsts, seconds, thirds, counts, size);
+        assertEquals(times[0], block.minTime);
+        assertEquals(times[size - 1], block.maxTime);
+
+        HistoryBlock.Decoder decoder = block.new Decoder();
+        for (int i = 0; i < size; i++) {
+            assertTrue(decoder.next());
+            assertEquals(times[i], decoder.time);
+            assertEquals(Double.doubleToRawLongBits(means[i]), Double.doubleToRawLongBits(decoder.mean));
+            assertEquals(firsts[i], decoder.first);
+            assertEquals(seconds[i], decoder.second);
+            assertEquals(thirds[i], decoder.third);
+            assertEquals(counts[i], decoder.count);
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void testSteadyReadingsCompress() {
+        int size = 1024;
+        long[] times = new long[size];
+        double[] means = new double[size];
+        int[] quartiles = new int[size];
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = 60000L * i;
+            means[i] = 21.5;
+            counts[i] = 10;
+        }
+        HistoryBlock block = HistoryBlock.encode(times, means, quartiles, quartiles, quartiles, counts, size);
+        // six bits per data point after the first, against 32 bytes in the ring
+        assertTrue(block.bytes() < size);
+    }
+}
@@ -0,0 +1,62 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IataOrdinalMapTest {
+
+    @Test
+    public void testPackRoundTrip() {
+        assertEquals("BOS", IataCode.unpack(IataCode.pack("BOS")));
+        assertEquals("04G", IataCode.unpack(IataCode.pack("04G")));
+        assertEquals(IataCode.INVALID, IataCode.pack(null));
+        assertEquals(IataCode.INVALID, IataCode.pack("JF"));
+        assertEquals(IataCode.INVALID, IataCode.pack("null"));
+        assertEquals(IataCode.INVALID, IataCode.pack("M\u00DCN"));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        IataOrdinalMap map = new IataOrdinalMap();
+        map.put(IataCode.pack("BOS"), 0);
+        map.put(IataCode.pack("JFK"), 1);
+
+        assertEquals(0, map.get(IataCode.pack("BOS")));
+        assertEquals(1, map.get(IataCode.pack("JFK")));
+        assertEquals(IataOrdinalMap.ABSENT, map.get(IataCode.pack("EWR")));
+
+        assertEquals(0, map.remove(IataCode.pack("BOS")));
+        assertEquals(IataOrdinalMap.ABSENT, map.get(IataCode.pack("BOS")));
+        assertEquals(IataOrdinalMap.ABSENT, map.remove(IataCode.pack("BOS")));
+
+        map.put(IataCode.pack("BOS"), 2);
+        assertEquals(2, map.get(IataCode.pack("BOS")));
+    }
+
+    @Test
+    public void testMatchesHashMapUnderChurn() {
+        IataOrdinalMap map = new IataOrdinalMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            String code = "" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26))
+                    + (char) ('0' + random.nextInt(10));
+            int key = IataCode.pack(code);
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? IataOrdinalMap.ABSENT : removed, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+        for (int key : expected.keySet()) {
+            assertEquals((int) expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.crossover.trial.weather.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 40000; value++) {
+            int bucket = LogLinearHistogram.bucketIndex(value);
+            assertTrue("value " + value, LogLinearHistogram.lowerBound(bucket) <= value);
+            assertTrue("value " + value, LogLinearHistogram.lowerBound(bucket + 1) > value);
+            // never wider than an eighth of the value
+            assertTrue("value " + value,
+                    LogLinearHistogram.lowerBound(bucket + 1) - LogLinearHistogram.lowerBound(bucket) <= Math.max(1, value / 8));
+        }
+    }
+
+    @Test
+    public void testRecord() {
+        LogLinearHistogram histogram = new LogLinearHistogram(15);
+        histogram.record(0);
+        histogram.record(0.5);
+        histogram.record(-3);
+        histogram.record(Double.NaN);
+        histogram.record(200);
+        histogram.record(205.9);
+        histogram.record(1e9);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(104, counts.length);
+        assertEquals(4, counts[0]);
+        assertEquals(2, counts[LogLinearHistogram.bucketIndex(200)]);
+        assertEquals(1, counts[counts.length - 1]);
+    }
+}
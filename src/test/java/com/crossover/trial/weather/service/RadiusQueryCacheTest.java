@@ -0,0 +1,133 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.data.AirportData;
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.AtmosphericInformation;
+import com.crossover.trial.weather.data.DataPoint;
+import com.crossover.trial.weather.data.DataPointType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RadiusQueryCacheTest {
+
+    private static final String[] CODES = {"QC1", "QC2", "QC3", "QC4"};
+
+    private AirportDataHolder dataHolder = AirportDataHolder.getInstance();
+
+    private RadiusQueryCache cache;
+
+    private int center;
+
+    @Before
+    public void setUp() {
+        // far away from every airport of the other tests
+        dataHolder.addAirportData("QC1", new AirportData("QC1", -60, -130));
+        dataHolder.addAirportData("QC2", new AirportData("QC2", -60.2, -130));
+        dataHolder.addAirportData("QC3", new AirportData("QC3", -50, -130));
+        update("QC2", 10);
+        update("QC3", 10);
+        center = dataHolder.findOrdinal("QC1");
+        cache = new RadiusQueryCache(16, dataHolder);
+    }
+
+    @After
+    public void tearDown() {
+        for (String code : CODES) {
+            dataHolder.removeAirportData(code);
+        }
+    }
+
+    @Test
+    public void testUpdateInvalidatesOnlyAffectedEntries() {
+        List<AtmosphericInformation> first = cache.get(center, 100);
+        assertEquals(2, first.size());
+        assertSame(first, cache.get(center, 100));
+
+        update("QC3", 20);
+        assertSame(first, cache.get(center, 100));
+
+        update("QC2", 20);
+        List<AtmosphericInformation> second = cache.get(center, 100);
+        assertEquals(20, second.get(1).getWind().getMean(), 0);
+        assertEquals(2L, cache.getStats().get("hits"));
+        assertEquals(2L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    public void testAddAndRemoveInvalidateContainingEntries() {
+        cache.get(center, 100);
+        cache.get(center, 5000);
+        assertEquals(2, cache.getStats().get("size"));
+
+        dataHolder.addAirportData("QC4", new AirportData("QC4", -45, -130));
+        assertEquals(1, cache.getStats().get("size"));
+        update("QC4", 10);
+        assertEquals(4, cache.get(center, 5000).size());
+
+        dataHolder.removeAirportData("QC2");
+        assertEquals(0, cache.getStats().get("size"));
+        assertEquals(1, cache.get(center, 100).size());
+    }
+
+    @Test
+    public void testUpdateDropsEntry() {
+        cache.get(center, 100);
+        cache.get(center, 200);
+        assertEquals(2, cache.getStats().get("size"));
+        update("QC2", 30);
+        assertEquals(0, cache.getStats().get("size"));
+        assertEquals(30, cache.get(center, 100).get(1).getWind().getMean(), 0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        for (int radius = 1; radius <= 16; radius++) {
+            cache.get(center, radius);
+        }
+        List<AtmosphericInformation> first = cache.get(center, 1);
+        cache.get(center, 17);
+        // the two least recently used entries go along with the one over the capacity
+        assertEquals(14, cache.getStats().get("size"));
+        assertSame(first, cache.get(center, 1));
+        assertEquals(2L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    public void testConcurrentMissesShareResult() throws Exception {
+        // nothing is cached, so every query misses and can only be served by its own or a shared computation
+        RadiusQueryCache uncached = new RadiusQueryCache(0, dataHolder);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<AtmosphericInformation>>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return uncached.get(center, 100);
+            }));
+        }
+        start.countDown();
+        for (Future<List<AtmosphericInformation>> result : results) {
+            assertEquals(2, result.get().size());
+        }
+        executor.shutdown();
+        assertEquals(64L, uncached.getStats().get("misses"));
+    }
+
+    private void update(String iata, int mean) {
+        DataPoint dataPoint = new DataPoint.Builder().withCount(1).build();
+        dataPoint.setMean(mean);
+        dataHolder.updateAtmosphericInformation(iata,
+                ai -> ai.withDataPoint(DataPointType.WIND, dataPoint, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,89 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.data.AirportData;
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.DataPoint;
+import com.crossover.trial.weather.data.DataPointType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherIngestionServiceTest {
+
+    private AirportDataHolder dataHolder = AirportDataHolder.getInstance();
+
+    private WeatherIngestionService ingestion;
+
+    @Before
+    public void setUp() {
+        dataHolder.addAirportData("IQ1", new AirportData("IQ1", -70, 100));
+        dataHolder.addAirportData("IQ2", new AirportData("IQ2", -70.5, 100));
+        ingestion = new WeatherIngestionService(2, 4096, dataHolder, WeatherCollectorService.getInstance());
+    }
+
+    @After
+    public void tearDown() {
+        dataHolder.removeAirportData("IQ1");
+        dataHolder.removeAirportData("IQ2");
+    }
+
+    @Test
+    public void testLatestUpdateWins() {
+        List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            pending.add(submit("IQ1", DataPointType.WIND, i));
+            pending.add(submit("IQ2", DataPointType.WIND, 2 * i));
+            pending.add(submit("IQ1", DataPointType.HUMIDTY, i % 100));
+        }
+        for (CompletableFuture<Boolean> update : pending) {
+            assertTrue(update.join());
+        }
+        assertEquals(1000, dataHolder.findAtmosphericInformation("IQ1").getWind().getMean(), 0);
+        assertEquals(2000, dataHolder.findAtmosphericInformation("IQ2").getWind().getMean(), 0);
+        assertEquals(0, dataHolder.findAtmosphericInformation("IQ1").getHumidity().getMean(), 0);
+
+        Map<String, Object> stats = ingestion.getStats();
+        assertEquals(3000L, stats.get("enqueued"));
+        assertEquals(3000L, (Long) stats.get("applied") + (Long) stats.get("coalesced"));
+        assertEquals(0L, stats.get("dropped"));
+    }
+
+    @Test
+    public void testInvalidMeanIgnored() {
+        CompletableFuture<Boolean> valid = submit("IQ1", DataPointType.HUMIDTY, 40);
+        // ignored as in synchronous mode, it must not supersede the valid reading queued before it
+        CompletableFuture<Boolean> invalid = submit("IQ1", DataPointType.HUMIDTY, 140);
+        assertTrue(invalid.isDone());
+        assertTrue(invalid.join());
+        assertFalse(submit("IQ3", DataPointType.HUMIDTY, 140).join());
+        assertTrue(valid.join());
+        assertEquals(40, dataHolder.findAtmosphericInformation("IQ1").getHumidity().getMean(), 0);
+        assertEquals(2L, ingestion.getStats().get("rejected"));
+        assertEquals(1L, ingestion.getStats().get("enqueued"));
+    }
+
+    @Test
+    public void testRemovedAirport() {
+        dataHolder.removeAirportData("IQ2");
+        assertFalse(submit("IQ2", DataPointType.WIND, 10).join());
+        assertFalse(submit("I-2", DataPointType.WIND, 10).join());
+    }
+
+    private CompletableFuture<Boolean> submit(String iata, DataPointType type, double mean) {
+        DataPoint dp = new DataPoint.Builder().withCount(1).build();
+        dp.setMean(mean);
+        CompletableFuture<Boolean> update = ingestion.submit(iata, type, dp);
+        assertNotNull(update);
+        return update;
+    }
+}
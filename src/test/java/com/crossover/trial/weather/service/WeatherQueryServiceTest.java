@@ -0,0 +1,56 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.data.AirportData;
+import com.crossover.trial.weather.data.AirportDataHolder;
+import com.crossover.trial.weather.data.DataPoint;
+import com.crossover.trial.weather.data.DataPointType;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherQueryServiceTest {
+
+    private AirportDataHolder dataHolder = AirportDataHolder.getInstance();
+
+    private WeatherQueryService queryService = WeatherQueryService.getInstance();
+
+    @Before
+    public void setUp() {
+        dataHolder.addAirportData("PQ1", new AirportData("PQ1", 70, -20));
+    }
+
+    @After
+    public void tearDown() {
+        dataHolder.removeAirportData("PQ1");
+    }
+
+    @Test
+    public void testReadingsDoNotRebuildPing() {
+        int before = ping(false).get("datasize").getAsInt();
+        long rebuilds = (Long) queryService.getStats().get("ping_rebuilds");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            DataPoint dataPoint = new DataPoint.Builder().withCount(1).build();
+            dataPoint.setMean(i % 100);
+            dataHolder.updateAtmosphericInformation("PQ1",
+                    ai -> ai.withDataPoint(DataPointType.WIND, dataPoint, System.currentTimeMillis()));
+        }
+        // the data size is current without a rebuild, only the periodic ones and the one queued by adding PQ1 ran
+        assertEquals(before + 1, ping(false).get("datasize").getAsInt());
+        long allowed = (System.currentTimeMillis() - start) / WeatherQueryService.PING_REFRESH_MILLIS + 2;
+        assertTrue((Long) queryService.getStats().get("ping_rebuilds") - rebuilds <= allowed);
+        assertTrue(ping(true).getAsJsonObject("iata_freq").has("PQ1"));
+    }
+
+    private JsonObject ping(boolean fresh) {
+        String json = new String(queryService.pingBytes(fresh), StandardCharsets.UTF_8);
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+}